@@ -0,0 +1,64 @@
+import java.util.List;
+
+/*
+ * The voices a voice of a polyphonic piece is evolved against (see PolyphonicGA).
+ * Their sounding pitches are resolved once, as lanes of one array, so the consonance of a candidate
+ * with all of them is found in a single pass over time.
+ */
+public class Accompaniment {
+	private static final int HOLD = 128;
+	private static final int REST = 129;
+
+	private int[] pitches; // chunk i of voice v at v*length + i, -1 where silent
+	private int voices;
+	private int length;
+
+	// Every voice of @score except @excluded, the one being evolved (-1 = none)
+	public Accompaniment(PolyphonicSelection score, int excluded) {
+		int[] all = score.soundingPitches();
+		length = score.length();
+		voices = excluded >= 0 && excluded < score.voices() ? score.voices() - 1 : score.voices();
+		pitches = new int[voices * length];
+		for (int v = 0, w = 0; v < score.voices(); v++)
+			if (v != excluded)
+				System.arraycopy(all, v * length, pitches, w++ * length, length);
+	}
+
+	// The voices of @parts, which must all have the same chunk size as the candidates
+	public Accompaniment(List<MusicSelection> parts) {
+		this(new PolyphonicSelection(parts), -1);
+	}
+
+	/* Fraction of consonant intervals between @s and the accompanying voices, over all chunks where
+	 * both sound; 1 if they never sound together.
+	 * This is a pass of its own rather than part of the similarity pass: similarity is mostly rescored
+	 * incrementally (see ScoreState), which a fused full pass would give up. It costs about a full
+	 * similarity pass with two accompanying voices, and is memoized with the individual.
+	 */
+	public double consonance(MusicSelection s) {
+		int n = Math.min(length, s.length());
+		int pairs = 0;
+		int consonant = 0;
+		int p = -1;
+		for (int i = 0; i < n; i++) {
+			int c = s.getChunkAt(i);
+			if (c == REST)
+				p = -1;
+			else if (c != HOLD)
+				p = c;
+			if (p < 0)
+				continue;
+			for (int v = 0; v < voices; v++) {
+				int q = pitches[v * length + i];
+				if (q < 0)
+					continue;
+				pairs++;
+				if (PolyphonicSelection.isConsonant(p, q))
+					consonant++;
+			}
+		}
+		return pairs == 0 ? 1 : (double)consonant / pairs;
+	}
+
+	public int voices() {return voices;}
+}
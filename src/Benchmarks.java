@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/*
+ * Micro-benchmarks for the hot paths of the genetic algorithm, built on the bundled scores.
+ * Every benchmark is run for each combination of piece length, chunk size and number of original
+ * pieces. The originals are the first pieces in scores/, equalized to the chunk size and then tiled
+ * or truncated to the piece length.
+ * Each benchmark is warmed up first, then timed over several measurement rounds; results are printed
+ * as mean and standard deviation in nanoseconds per operation.
+ * Benchmarks that change the state they run on have a setup that restores it before every operation,
+ * outside the timed part, so every operation starts from the same state. Those operations are timed
+ * one at a time, which adds the cost of reading the clock (a few dozen nanoseconds) to each.
+ *
+ * Usage: java Benchmarks [length=100,400] [chunk=16,32] [originals=2,8] [filter=name] [rounds=5] [roundMs=500]
+ */
+public class Benchmarks {
+	private static final String SCORE_DIRECTORY = "scores";
+
+	private static int[] lengths = {100, 400};
+	private static int[] chunkSizes = {16};
+	private static int[] numOriginals = {2, 8};
+	private static String filter = "";
+	private static int rounds = 5;
+	private static long roundMillis = 500;
+
+	// Results are accumulated here so the JIT cannot discard the benchmarked work
+	private static volatile double sink;
+
+	private interface Operation {
+		double run() throws IOException;
+	}
+
+	private interface Setup {
+		void run() throws IOException;
+	}
+
+	public static void main(String args[]) throws IOException {
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			if (kv[0].equals("length"))
+				lengths = parseList(kv[1]);
+			else if (kv[0].equals("chunk"))
+				chunkSizes = parseList(kv[1]);
+			else if (kv[0].equals("originals"))
+				numOriginals = parseList(kv[1]);
+			else if (kv[0].equals("filter"))
+				filter = kv[1];
+			else if (kv[0].equals("rounds"))
+				rounds = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("roundMs"))
+				roundMillis = Long.parseLong(kv[1]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + arg);
+		}
+
+		File[] files = new File(SCORE_DIRECTORY).listFiles();
+		Arrays.sort(files);
+		ArrayList<MusicSelection> scores = new ArrayList<MusicSelection>();
+		for (File f : files) {
+			ArrayList<MusicSelection> voices = Driver.readVoices(f.getPath());
+			if (voices.size() == 1) // polyphonic scores are left to PolyphonicGA
+				scores.add(voices.get(0));
+		}
+
+		System.out.printf("%-22s %7s %6s %10s %14s %12s%n", "benchmark", "length", "chunk", "originals", "ns/op", "stddev");
+		for (int length : lengths)
+			for (int chunkSize : chunkSizes)
+				for (int n : numOriginals)
+					runAll(scores, length, chunkSize, n);
+	}
+
+	private static void runAll(ArrayList<MusicSelection> scores, int length, int chunkSize, int n) throws IOException {
+		ArrayList<MusicSelection> originals = new ArrayList<MusicSelection>(n);
+		for (int i = 0; i < n; i++)
+			originals.add(fit(scores.get(i % scores.size()), length, chunkSize));
+		MusicGeneticAlgorithm g = new MusicGeneticAlgorithm(originals);
+		FitnessCache cache = g.getFitnessCache();
+		FitnessCache disabled = new FitnessCache(0);
+		Random gen = new Random(42);
+		MusicSelection a = new MusicSelection(originals.get(0));
+		g.mutate(a, 0.33);
+		MusicSelection b = new MusicSelection(originals.get(n-1));
+		g.mutate(b, 0.33);
+		String label = String.format("%7d %6d %10d", length, chunkSize, n);
+
+		measure("similarity", label, () -> g.similarity(a, b));
+		// Scoring benchmarks bypass the content cache so every call is evaluated
+		g.setFitnessCache(disabled);
+		measure("fitnessOrig", label, () -> {
+			MusicSelection c = a.slice(0, a.length()); // no cached fitness or similarity terms
+			return g.fitnessOrig(c);
+		});
+		// Each operation mutates a fresh copy of the same scored individual
+		MusicSelection scored = new MusicSelection(a);
+		g.fitnessOrig(scored);
+		MusicSelection incremental = new MusicSelection(scored);
+		measure("fitnessOrig/mutated", label, () -> incremental.copyFrom(scored), () -> {
+			int i = 1 + gen.nextInt(incremental.length()-1);
+			incremental.setChunkAt(i, gen.nextInt(128));
+			return g.fitnessOrig(incremental);
+		});
+		g.setFitnessCache(cache);
+		measure("makeBitmask", label, () -> g.makeBitmask(a, b)[0]);
+		measure("crossover", label, () -> g.crossover(a, b).get(0).length());
+		MusicSelection child1 = new MusicSelection(a);
+		MusicSelection child2 = new MusicSelection(b);
+		measure("crossoverInto", label, () -> {
+			g.crossoverInto(a, b, child1, child2, gen);
+			return child1.length();
+		});
+		measure("mutate", label, () -> {
+			MusicSelection c = a.slice(0, a.length());
+			g.mutate(c, 0.05);
+			return c.getChunkAt(0);
+		});
+		measure("mutateFromNote", label, () -> incremental.copyFrom(scored), () -> {
+			g.mutateFromNote(incremental, 1 + gen.nextInt(incremental.length()-1));
+			return incremental.getChunkAt(0);
+		});
+		MusicSelection coarse = scores.get(0);
+		measure("equalize", label, () -> {
+			MusicSelection c = new MusicSelection(coarse);
+			MusicGeneticAlgorithm.equalize(c, coarse.getChunkSize() * 4);
+			return c.length();
+		});
+		measure("toNotes", label, () -> g.toNotes(a).length());
+		ByteBuffer[] buffer = new ByteBuffer[1];
+		measure("generateMIDI", label, () -> {
+			buffer[0] = MIDIWorkshop.encode(a, "Benchmark", buffer[0]);
+			return buffer[0].limit();
+		});
+		// One generation of a freshly created algorithm, so the population and fitness cache are the same every time
+		MusicGeneticAlgorithm[] fresh = new MusicGeneticAlgorithm[1];
+		measure("runAlgorithm/1", label, () -> fresh[0] = new MusicGeneticAlgorithm(originals), () -> {
+			fresh[0].runAlgorithm(1);
+			return fresh[0].getEvaluations();
+		});
+	}
+
+	// Equalizes a copy of @s to @chunkSize, then repeats or truncates it to @length chunks
+	private static MusicSelection fit(MusicSelection s, int length, int chunkSize) {
+		MusicSelection copy = new MusicSelection(s);
+		MusicGeneticAlgorithm.equalize(copy, chunkSize);
+		short[] chunks = new short[length];
+		for (int i = 0; i < length; i++)
+			chunks[i] = (short)copy.getChunkAt(i % copy.length());
+		return new MusicSelection(chunks, length, copy.getChunkSize());
+	}
+
+	private static void measure(String name, String label, Operation op) throws IOException {
+		measure(name, label, null, op);
+	}
+
+	// As above, running @setup (untimed, unless null) before every operation
+	private static void measure(String name, String label, Setup setup, Operation op) throws IOException {
+		if (!name.contains(filter))
+			return;
+		if (setup != null) {
+			measureEach(name, label, setup, op);
+			return;
+		}
+		// Warm-up round, also used to size the batches so that timer overhead is negligible
+		long batch = 1;
+		long start = System.nanoTime();
+		long deadline = start + roundMillis * 1000000;
+		long done = 0;
+		while (System.nanoTime() < deadline) {
+			for (long k = 0; k < batch; k++)
+				sink += op.run();
+			done += batch;
+			batch *= 2;
+		}
+		batch = Math.max(1, done / 20);
+
+		double[] results = new double[rounds];
+		for (int r = 0; r < rounds; r++) {
+			long ops = 0;
+			start = System.nanoTime();
+			deadline = start + roundMillis * 1000000;
+			long now;
+			do {
+				for (long k = 0; k < batch; k++)
+					sink += op.run();
+				ops += batch;
+				now = System.nanoTime();
+			} while (now < deadline);
+			results[r] = (double)(now - start) / ops;
+		}
+		report(name, label, results);
+	}
+
+	// Prints the mean and standard deviation of the per-round @results
+	private static void report(String name, String label, double[] results) {
+		double mean = 0;
+		for (double x : results)
+			mean += x;
+		mean /= rounds;
+		double variance = 0;
+		for (double x : results)
+			variance += (x - mean) * (x - mean);
+		double stddev = rounds > 1 ? Math.sqrt(variance / (rounds - 1)) : 0;
+		System.out.printf("%-22s %s %14.1f %12.1f%n", name, label, mean, stddev);
+	}
+
+	// measure() timing each operation on its own, after its setup
+	private static void measureEach(String name, String label, Setup setup, Operation op) throws IOException {
+		double[] results = new double[rounds];
+		for (int r = -1; r < rounds; r++) { // round -1 warms up
+			long deadline = System.nanoTime() + roundMillis * 1000000;
+			long ops = 0;
+			long elapsed = 0;
+			do {
+				setup.run();
+				long start = System.nanoTime();
+				sink += op.run();
+				elapsed += System.nanoTime() - start;
+				ops++;
+			} while (System.nanoTime() < deadline);
+			if (r >= 0)
+				results[r] = (double)elapsed / ops;
+		}
+		report(name, label, results);
+	}
+
+	private static int[] parseList(String s) {
+		String[] parts = s.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i]);
+		return values;
+	}
+}
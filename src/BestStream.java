@@ -0,0 +1,93 @@
+import java.util.concurrent.*;
+
+/*
+ * Publishes every new best individual of a MusicGeneticAlgorithm run while it is still running.
+ * Register it with addListener(); whenever a generation's best beats all earlier ones, a copy is
+ * offered to the subscribers, e.g. an ImprovementWriter or a LivePlayer attached with consume().
+ * Each subscriber has a bounded buffer and is served on its own thread, so slow output never holds
+ * up the run: if a subscriber falls behind, improvements it has no room for are skipped. The last
+ * improvement is always delivered, by close(); as that resends it to every subscriber, subscribers
+ * are wrapped so that each sees an improvement at most once.
+ *
+ * Usage:
+ *   BestStream stream = new BestStream(g, 16);
+ *   g.addListener(stream);
+ *   CompletableFuture<Void> done = stream.consume(new ImprovementWriter(g, out, null));
+ *   g.runAlgorithm(...);
+ *   stream.close();
+ *   done.join();
+ */
+public class BestStream extends SubmissionPublisher<BestStream.Improvement> implements GenerationListener {
+	// A new best individual
+	public static class Improvement {
+		public int generation; // in which the individual was selected as elite
+		public double fitness;
+		public MusicSelection piece; // a copy owned by the subscribers
+	}
+
+	private MusicGeneticAlgorithm ga;
+	private double bestFitness = Double.NEGATIVE_INFINITY;
+	private Improvement skipped; // the latest improvement, if some subscriber had no room for it
+
+	// Streams the improvements of @ga, buffering at most @bufferCapacity of them per subscriber.
+	// Delivery runs on daemon threads that end on their own once idle.
+	public BestStream(MusicGeneticAlgorithm ga, int bufferCapacity) {
+		super(Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "best-stream");
+			t.setDaemon(true);
+			return t;
+		}), bufferCapacity);
+		this.ga = ga;
+	}
+
+	public void generationCompleted(GenerationStats stats) {
+		if (stats.bestFitness <= bestFitness)
+			return;
+		bestFitness = stats.bestFitness;
+		Improvement improvement = new Improvement();
+		improvement.generation = stats.generation;
+		improvement.fitness = stats.bestFitness;
+		improvement.piece = new MusicSelection(ga.getElite());
+		skipped = offer(improvement, (subscriber, item) -> false) < 0 ? improvement : null;
+	}
+
+	// Subscribes @subscriber through a filter that drops improvements it has already received
+	public void subscribe(Flow.Subscriber<? super Improvement> subscriber) {
+		super.subscribe(new Deduplicating(subscriber));
+	}
+
+	// Delivers the latest improvement if it was skipped, then completes the subscribers once they have drained
+	public void close() {
+		if (skipped != null && !isClosed()) {
+			submit(skipped); // waits for room
+			skipped = null;
+		}
+		super.close();
+	}
+
+	// Passes improvements on to @target unless it has had one from the same or a later generation
+	private static class Deduplicating implements Flow.Subscriber<Improvement> {
+		private Flow.Subscriber<? super Improvement> target;
+		private Flow.Subscription subscription;
+		private int lastGeneration = -1;
+
+		Deduplicating(Flow.Subscriber<? super Improvement> target) {this.target = target;}
+
+		public void onSubscribe(Flow.Subscription s) {
+			subscription = s;
+			target.onSubscribe(s);
+		}
+
+		public void onNext(Improvement item) {
+			if (item.generation <= lastGeneration) {
+				subscription.request(1); // replaces the demand the dropped item used up
+				return;
+			}
+			lastGeneration = item.generation;
+			target.onNext(item);
+		}
+
+		public void onError(Throwable e) {target.onError(e);}
+		public void onComplete() {target.onComplete();}
+	}
+}
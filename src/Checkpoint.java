@@ -0,0 +1,210 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Periodically saves the state of a MusicGeneticAlgorithm run so that it can be resumed after it is
+ * stopped. Register it with addListener(); every @interval generations it snapshots the population,
+ * the elite history, the generation count, the random generator, the configuration, the adaptive
+ * mutation rate and population size, and the equalized originals.
+ * The snapshot is encoded on the generation thread into one of two buffers and written by a
+ * background thread from there, so the run continues while the file is written. The file is written
+ * under a temporary name and then moved over the previous snapshot, so a crash during a write leaves
+ * the previous snapshot intact.
+ *
+ * Layout (big-endian): magic "MGAS", format version, generation, mutation rate, population size,
+ * the GAConfig values in the order of GAConfig.PARAMETERS, length and bytes of the serialized java.util.Random, then the originals, the population and the
+ * elite history (count -1 if not recorded), each as a count followed by chunk size, length and chunks
+ * of every piece. Population and elite chunks are in the representation the GAConfig selects.
+ */
+public class Checkpoint implements GenerationListener, Closeable {
+	private static final int MAGIC = 0x4D474153; // "MGAS"
+	private static final int VERSION = 3;
+
+	private MusicGeneticAlgorithm ga;
+	private Path destination;
+	private int interval;
+	private ByteBuffer[] buffers = new ByteBuffer[2];
+	private Future<?>[] pending = new Future<?>[2]; // write of each buffer, null if none
+	private int next; // buffer the next snapshot is encoded into
+	private ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "checkpoint-writer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// Saves @ga to @filename after every @interval generations
+	public Checkpoint(MusicGeneticAlgorithm ga, String filename, int interval) {
+		this.ga = ga;
+		this.destination = Paths.get(filename);
+		this.interval = interval;
+	}
+
+	public void generationCompleted(GenerationStats stats) {
+		if (ga.getGeneration() % interval == 0) {
+			try {
+				save();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/* Encodes the current state and hands it to the writer thread.
+	 * Only waits if the write that last used the same buffer has not finished.
+	 */
+	public void save() throws IOException {
+		await(next);
+		buffers[next] = encode(ga, buffers[next]);
+		ByteBuffer buffer = buffers[next];
+		pending[next] = writer.submit(() -> {
+			write(buffer);
+			return null;
+		});
+		next = 1 - next;
+	}
+
+	// Waits for all pending writes
+	public void flush() throws IOException {
+		await(0);
+		await(1);
+	}
+
+	public void close() throws IOException {
+		flush();
+		writer.shutdown();
+	}
+
+	private void await(int b) throws IOException {
+		if (pending[b] == null)
+			return;
+		try {
+			pending[b].get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing " + destination);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not write " + destination, e.getCause());
+		} finally {
+			pending[b] = null;
+		}
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		Path temp = destination.resolveSibling(destination.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		}
+		Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Encodes the state of @ga into @buffer, or a new buffer if it is null or too small; returns it flipped
+	public static ByteBuffer encode(MusicGeneticAlgorithm ga, ByteBuffer buffer) throws IOException {
+		ByteArrayOutputStream random = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(random)) {
+			out.writeObject(ga.getRandom());
+		}
+		ArrayList<MusicSelection> elites = ga.getEliteHistory();
+		double[] config = ga.getConfig().values();
+		long capacity = 28L + 8 * config.length + random.size() + bytes(ga.getOriginals()) + bytes(ga.getPopulation())
+				+ (elites == null ? 4 : bytes(elites));
+		if (capacity > Integer.MAX_VALUE)
+			throw new IOException("Snapshot of " + capacity + " bytes is too large");
+		if (buffer == null || buffer.capacity() < capacity)
+			buffer = ByteBuffer.allocate((int)(capacity + capacity / 4)); // room for the population to grow
+		buffer.clear();
+		buffer.putInt(MAGIC).putInt(VERSION);
+		buffer.putInt(ga.getGeneration());
+		buffer.putDouble(ga.getMutationRate());
+		buffer.putInt(ga.getPopulationSize());
+		for (double v : config)
+			buffer.putDouble(v);
+		buffer.putInt(random.size()).put(random.toByteArray());
+		putSelections(buffer, ga.getOriginals());
+		putSelections(buffer, ga.getPopulation());
+		if (elites == null)
+			buffer.putInt(-1);
+		else
+			putSelections(buffer, elites);
+		buffer.flip();
+		return buffer;
+	}
+
+	/* Recreates the run saved in @filename. Settings that are not part of the snapshot, such as
+	 * parallelism, niching, adaptivity and listeners, have to be applied again.
+	 */
+	public static MusicGeneticAlgorithm resume(String filename) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+		try {
+			if (buffer.getInt() != MAGIC)
+				throw new IOException(filename + " is not a checkpoint");
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException(filename + " has unsupported checkpoint version " + version);
+			int generation = buffer.getInt();
+			double mutationRate = buffer.getDouble();
+			int populationSize = buffer.getInt();
+			GAConfig config = new GAConfig();
+			for (String parameter : GAConfig.PARAMETERS)
+				config.set(parameter, buffer.getDouble());
+			byte[] randomBytes = new byte[buffer.getInt()];
+			buffer.get(randomBytes);
+			Random gen;
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(randomBytes))) {
+				gen = (Random)in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(filename + " holds an unknown random generator", e);
+			}
+			ArrayList<MusicSelection> originals = getSelections(buffer, false);
+			ArrayList<MusicSelection> population = getSelections(buffer, config.isRelative());
+			ArrayList<MusicSelection> elites = getSelections(buffer, config.isRelative());
+
+			// The originals are already equalized; the fresh initial population is replaced right away
+			MusicGeneticAlgorithm ga = new MusicGeneticAlgorithm(new OriginalSet(originals), config, 0);
+			ga.restore(population, elites, generation, gen, mutationRate, populationSize);
+			return ga;
+		} catch (java.nio.BufferUnderflowException e) {
+			throw new IOException(filename + " is truncated", e);
+		}
+	}
+
+	private static long bytes(List<MusicSelection> pieces) {
+		long total = 4;
+		for (MusicSelection s : pieces)
+			total += 8 + 2L * s.length();
+		return total;
+	}
+
+	private static void putSelections(ByteBuffer buffer, List<MusicSelection> pieces) {
+		buffer.putInt(pieces.size());
+		for (MusicSelection s : pieces) {
+			buffer.putInt(s.getChunkSize());
+			buffer.putInt(s.length());
+			for (int i = 0; i < s.length(); i++)
+				buffer.putShort((short)s.getChunkAt(i));
+		}
+	}
+
+	// Null for a count of -1; the chunks are relative if @relative is set
+	private static ArrayList<MusicSelection> getSelections(ByteBuffer buffer, boolean relative) {
+		int n = buffer.getInt();
+		if (n < 0)
+			return null;
+		ArrayList<MusicSelection> pieces = new ArrayList<MusicSelection>(n);
+		for (int j = 0; j < n; j++) {
+			int chunkSize = buffer.getInt();
+			int length = buffer.getInt();
+			short[] chunks = new short[length];
+			buffer.asShortBuffer().get(chunks);
+			buffer.position(buffer.position() + 2 * length);
+			pieces.add(new MusicSelection(chunks, length, chunkSize, relative));
+		}
+		return pieces;
+	}
+}
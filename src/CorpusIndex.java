@@ -0,0 +1,301 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Scores a candidate against many originals without comparing it with every one of them.
+ * Each original is summarized by the histogram of its lane values and grouped by the pitch class of
+ * its first note, which fixes the candidate's transposition, and by its length.
+ *
+ * - max() and min(): the rearrangement inequality bounds the dot product of two vectors by pairing
+ *   their sorted values, largest with largest for an upper bound and largest with smallest for a
+ *   lower one. From the histograms this costs a few dozen steps per original instead of a pass over
+ *   the piece. Together with the exact norms (prefix sums for the original, the histogram for the
+ *   candidate), this bounds each similarity. Originals whose bound cannot beat the best similarity
+ *   found so far are skipped. The result is exactly that of comparing with every original.
+ *   How many are skipped depends on the corpus: similarities bunched close together leave little to
+ *   skip. Each thread keeps track of its recent skip rate and falls back to a plain scan while bounds
+ *   would cost more than they save, trying them again every PROBE_INTERVAL calls.
+ * - average(): originals with the same transposition and common length share the candidate's norm,
+ *   so the sum of their similarities is one dot product of the candidate with the sum of their
+ *   normalized vectors. These centroids are built on first use and cached. The result equals the
+ *   mean of all similarities up to rounding.
+ *
+ * All methods may be called from several threads at once.
+ */
+public class CorpusIndex {
+	private static final int LANES = PitchProfile.NUM_NOTES_PER_OCTAVE + 1; // pitch classes and LEADING
+	private static final int NO_NOTE = PitchProfile.NUM_NOTES_PER_OCTAVE; // class of originals without notes
+	// Lane values from the largest down: a rest's value (leading chunks), then pitch classes 11 to 0
+	private static final int[] VALUE = new int[LANES];
+	static {
+		VALUE[0] = PitchProfile.REST;
+		for (int r = 1; r < LANES; r++)
+			VALUE[r] = PitchProfile.NUM_NOTES_PER_OCTAVE - r;
+	}
+	// A bound costs about as much as comparing this many chunks exactly (measured with the kernel on)
+	private static final int BOUND_COST = 512;
+	private static final int PROBE_INTERVAL = 64;
+	private static final double SKIP_RATE_DECAY = 0.1;
+
+	// Per-thread working space
+	private class Scratch {
+		int[][] prefix = new int[lengths.length + 1][LANES]; // candidate lane histograms at each length in lengths
+		int[][] ranks = new int[PitchProfile.NUM_NOTES_PER_OCTAVE + 1][LANES]; // candidate counts per transposition, from the largest value
+		long[] mags = new long[PitchProfile.NUM_NOTES_PER_OCTAVE]; // candidate squared norm per transposition
+		double[] values = new double[originals.length]; // bounds or similarities
+		double skipRate = 1; // recent fraction of originals skipped by bounds
+		int calls;
+	}
+
+	private PitchProfile[] originals;
+	private int[][] histograms; // [j][lane code]: chunks of original j in each lane
+	private int[] classes; // pitch class of each original's first note, or NO_NOTE
+	private int[] lengths; // distinct lengths of the originals, ascending
+	private int[] lengthIndex; // position of each original's length in lengths
+	private int[][][] byLength; // [class][length index]: originals of that class and length
+	private ConcurrentHashMap<Long, double[]> centroids = new ConcurrentHashMap<Long, double[]>();
+	private int[][] descending; // [j][r]: chunks of original j with the r-th largest value (see VALUE)
+	private ThreadLocal<Scratch> scratch;
+	private LongAdder compared = new LongAdder();
+	private LongAdder skipped = new LongAdder();
+
+	public CorpusIndex(OriginalSet set) {
+		originals = set.getProfiles();
+		int n = originals.length;
+		histograms = new int[n][LANES];
+		classes = new int[n];
+		TreeSet<Integer> distinct = new TreeSet<Integer>();
+		for (int j = 0; j < n; j++) {
+			PitchProfile p = originals[j];
+			for (int i = 0; i < p.length(); i++)
+				histograms[j][p.getLaneAt(i)]++;
+			classes[j] = p.getFirstNote() < 0 ? NO_NOTE : p.getFirstNote() % PitchProfile.NUM_NOTES_PER_OCTAVE;
+			distinct.add(p.length());
+		}
+		lengths = new int[distinct.size()];
+		int k = 0;
+		for (int l : distinct)
+			lengths[k++] = l;
+		lengthIndex = new int[n];
+		int[][] counts = new int[LANES][lengths.length];
+		for (int j = 0; j < n; j++) {
+			lengthIndex[j] = Arrays.binarySearch(lengths, originals[j].length());
+			counts[classes[j]][lengthIndex[j]]++;
+		}
+		byLength = new int[LANES][lengths.length][];
+		for (int c = 0; c < LANES; c++)
+			for (int l = 0; l < lengths.length; l++)
+				byLength[c][l] = new int[counts[c][l]];
+		for (int j = n - 1; j >= 0; j--)
+			byLength[classes[j]][lengthIndex[j]][--counts[classes[j]][lengthIndex[j]]] = j;
+		descending = new int[n][LANES];
+		for (int j = 0; j < n; j++)
+			ranks(histograms[j], 0, descending[j]);
+		scratch = ThreadLocal.withInitial(Scratch::new);
+	}
+
+	// Highest similarity of @candidate to any original
+	public double max(PitchProfile candidate) {
+		return extreme(candidate, true);
+	}
+
+	// Lowest similarity of @candidate to any original
+	public double min(PitchProfile candidate) {
+		return extreme(candidate, false);
+	}
+
+	private double extreme(PitchProfile candidate, boolean highest) {
+		Scratch t = scratch.get();
+		SimilarityKernel kernel = SimilarityKernel.get();
+		double[] values = t.values;
+		// Bounds are skipped while they have not been paying for themselves, but retried now and then
+		if (++t.calls % PROBE_INTERVAL != 0 && t.skipRate * candidate.length() < BOUND_COST) {
+			if (SimilarityKernel.ENABLED)
+				kernel.score(candidate, originals, values);
+			else
+				for (int j = 0; j < originals.length; j++)
+					values[j] = originals[j].similarity(candidate);
+			double best = values[0];
+			for (int j = 1; j < originals.length; j++)
+				best = highest ? Math.max(best, values[j]) : Math.min(best, values[j]);
+			compared.add(originals.length);
+			return best;
+		}
+
+		prefixHistograms(candidate, t);
+		kernel.start(candidate);
+		// The most promising original first, so that the rest can be compared against its similarity
+		int first = 0;
+		for (int j = 0; j < originals.length; j++) {
+			values[j] = bound(candidate, j, t, highest);
+			if (highest ? values[j] > values[first] : values[j] < values[first])
+				first = j;
+		}
+		double best = similarity(kernel, candidate, first);
+		int comparisons = 1;
+		for (int j = 0; j < originals.length; j++) {
+			// NaN bounds (zero norms) are never skipped, so NaN similarities propagate as in a full scan
+			if (j == first || (highest ? values[j] <= best : values[j] >= best))
+				continue;
+			double f = similarity(kernel, candidate, j);
+			best = highest ? Math.max(best, f) : Math.min(best, f);
+			comparisons++;
+		}
+		int skips = originals.length - comparisons;
+		t.skipRate = (1 - SKIP_RATE_DECAY) * t.skipRate + SKIP_RATE_DECAY * skips / originals.length;
+		compared.add(comparisons);
+		skipped.add(skips);
+		return best;
+	}
+
+	private double similarity(SimilarityKernel kernel, PitchProfile candidate, int j) {
+		return SimilarityKernel.ENABLED ? kernel.similarity(originals[j]) : originals[j].similarity(candidate);
+	}
+
+	/* Upper (@upper) or lower bound on the similarity of @candidate to original j.
+	 * Over a common length shorter than the original, the original's whole histogram stands in for that
+	 * of its prefix; pairing with the best (or worst) of a superset still bounds the prefix.
+	 */
+	private double bound(PitchProfile candidate, int j, Scratch t, boolean upper) {
+		PitchProfile orig = originals[j];
+		int n = Math.min(candidate.length(), orig.length());
+		int shift = orig.shiftFor(candidate);
+		int[] c;
+		long magA;
+		if (n < candidate.length()) {
+			c = t.ranks[PitchProfile.NUM_NOTES_PER_OCTAVE];
+			magA = ranks(t.prefix[lengthIndex[j]], shift, c);
+		}
+		else {
+			c = t.ranks[shift];
+			magA = t.mags[shift];
+		}
+		// The candidate's values from the largest, against the original's from the largest (upper bound)
+		// or from the smallest (lower bound)
+		int[] o = descending[j];
+		int step = upper ? 1 : -1;
+		int ci = 0;
+		int oi = upper ? 0 : LANES - 1;
+		int cLeft = c[ci];
+		int oLeft = o[oi];
+		long dot = 0;
+		int pairs = n;
+		while (pairs > 0) {
+			while (cLeft == 0)
+				cLeft = c[++ci];
+			while (oLeft == 0)
+				oLeft = o[oi += step];
+			int k = Math.min(pairs, Math.min(cLeft, oLeft));
+			dot += (long)k * VALUE[ci] * VALUE[oi];
+			cLeft -= k;
+			oLeft -= k;
+			pairs -= k;
+		}
+		return dot / Math.sqrt((double)magA * orig.normSquared(n));
+	}
+
+	/* Writes the counts of @histogram's lanes transposed by @shift to @counts, from the largest value
+	 * down (see VALUE), and returns the squared norm of the transposed values.
+	 */
+	private static long ranks(int[] histogram, int shift, int[] counts) {
+		int[] transpose = PitchProfile.transposeTable(shift);
+		long mag = 0;
+		for (int lane = 0; lane < LANES; lane++) {
+			int v = transpose[lane];
+			counts[v == PitchProfile.REST ? 0 : PitchProfile.NUM_NOTES_PER_OCTAVE - v] = histogram[lane];
+			mag += (long)histogram[lane] * v * v;
+		}
+		return mag;
+	}
+
+	// Mean similarity of @candidate to the originals
+	public double average(PitchProfile candidate) {
+		Scratch t = scratch.get();
+		prefixHistograms(candidate, t);
+		int[][] prefix = t.prefix;
+		SimilarityKernel kernel = SimilarityKernel.get();
+		kernel.start(candidate);
+		int length = candidate.length();
+		double total = 0;
+		for (int cls = 0; cls < LANES; cls++) {
+			int shift = cls == NO_NOTE || candidate.getFirstNote() < 0 ? 0
+					: Math.floorMod(cls - candidate.getFirstNote(), PitchProfile.NUM_NOTES_PER_OCTAVE);
+			// Originals shorter than the candidate are compared over their own length, one group per length
+			int l = 0;
+			for (; l < lengths.length && lengths[l] < length; l++)
+				if (byLength[cls][l].length > 0)
+					total += groupSimilarity(kernel, prefix[l], shift, cls, lengths[l], false);
+			// The rest over the candidate's length
+			if (l < lengths.length)
+				total += groupSimilarity(kernel, prefix[lengths.length], shift, cls, length, true);
+		}
+		compared.add(1);
+		return total / originals.length;
+	}
+
+	/* Sum of the similarities of the candidate to the originals of class @cls that are compared over @n
+	 * chunks: those of length @n, or with @longer those of length @n or more.
+	 */
+	private double groupSimilarity(SimilarityKernel kernel, int[] histogram, int shift, int cls, int n, boolean longer) {
+		double[] centroid = centroid(cls, n, longer);
+		if (centroid.length == 0)
+			return 0;
+		int[] transpose = PitchProfile.transposeTable(shift);
+		long magA = 0;
+		for (int lane = 0; lane < LANES; lane++)
+			magA += (long)histogram[lane] * transpose[lane] * transpose[lane];
+		int[] a = kernel.transposed(shift);
+		double dot = 0;
+		for (int i = 0; i < n; i++)
+			dot += a[i] * centroid[i];
+		return dot / Math.sqrt((double)magA);
+	}
+
+	/* Sum over the originals of class @cls compared over @n chunks (see groupSimilarity) of their first
+	 * @n values divided by their norm. Empty if there are no such originals.
+	 */
+	private double[] centroid(int cls, int n, boolean longer) {
+		long key = ((long)cls << 33) | (longer ? 1L << 32 : 0) | n;
+		return centroids.computeIfAbsent(key, k -> {
+			double[] sum = null;
+			for (int l = 0; l < lengths.length; l++) {
+				if (longer ? lengths[l] < n : lengths[l] != n)
+					continue;
+				for (int j : byLength[cls][l]) {
+					if (sum == null)
+						sum = new double[n];
+					PitchProfile orig = originals[j];
+					double norm = Math.sqrt((double)orig.normSquared(n));
+					for (int i = 0; i < n; i++)
+						sum[i] += orig.getValueAt(i) / norm;
+				}
+			}
+			return sum == null ? new double[0] : sum;
+		});
+	}
+
+	/* Lane histograms of @candidate over its first lengths[l] chunks for each shorter length, and over
+	 * all of it, into @t; also the ranked counts and norms of the whole candidate under every transposition
+	 */
+	private void prefixHistograms(PitchProfile candidate, Scratch t) {
+		int[][] prefix = t.prefix;
+		int[] running = prefix[lengths.length];
+		Arrays.fill(running, 0);
+		int length = candidate.length();
+		int l = 0;
+		for (int i = 0; i < length; i++) {
+			while (l < lengths.length && lengths[l] == i) {
+				System.arraycopy(running, 0, prefix[l], 0, LANES);
+				l++;
+			}
+			running[candidate.getLaneAt(i)]++;
+		}
+		for (int shift = 0; shift < PitchProfile.NUM_NOTES_PER_OCTAVE; shift++)
+			t.mags[shift] = ranks(running, shift, t.ranks[shift]);
+	}
+
+	// Exact similarities computed, and originals skipped by bounds, so far by max() and min(); average() counts as one
+	public long getCompared() {return compared.sum();}
+	public long getSkipped() {return skipped.sum();}
+}
@@ -1,41 +1,174 @@
-import java.util.*;
-import java.io.*;
-
-import javax.sound.midi.InvalidMidiDataException;
-
-public class Driver {
-	public static void main (String args []) throws IOException, InvalidMidiDataException {	
-		long startTime = System.currentTimeMillis();
-		int numSteps = 100;
-		ArrayList<MusicSelection> pieces = new ArrayList<MusicSelection>();
-		Scanner files = new Scanner(new File("files.txt"));
-		
-		while (files.hasNext()) { // adds a new piece from each filename
-			String filename = files.nextLine();
-			Scanner in = new Scanner(new File(filename));
-			ArrayList<Integer> notes = new ArrayList<Integer>();
-			int chunkSize = in.nextInt();
-			while (in.hasNext())
-				notes.add(in.nextInt());
-			
-			pieces.add(new MusicSelection(notes, chunkSize));
-		}
-		
-//		MIDIWorkshop w = new MIDIWorkshop(pieces.get(0), "invention01.txt");
-//		System.exit(0);
-		
-		MusicGeneticAlgorithm g = new MusicGeneticAlgorithm(pieces);
-//		System.out.println(g.toNotes(pieces.get(0)));
-//		System.exit(0);
-		
-		g.runAlgorithm(numSteps);
-		MusicSelection generated = g.getBestPiece();
-		System.out.println("Best result:\n" +generated);
-		System.out.println(g.fitnessOrig(generated)+", "+g.fitness(generated));
-		System.out.println(g.toNotes(generated));
-//		MIDIWorkshop ws = new MIDIWorkshop(generated, "Invention No. 1", "variant.txt");
-		generated.generateMIDIText("Invention No. 1", "variant.txt");
-
-		System.out.println("total time taken: " + (System.currentTimeMillis() - startTime) + " milliseconds");
-	}
-}
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.CompletableFuture;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+public class Driver {
+	public static void main (String args []) throws IOException, InvalidMidiDataException {	
+		long startTime = System.currentTimeMillis();
+		int numSteps = 100; // upper bound; the run stops earlier once it converges
+		int patience = 30; // generations without improvement before stopping
+		int checkpointInterval = 10;
+		// With -Dmga.checkpoint=<file>, the run is saved there periodically and resumed from it if it exists
+		String checkpointFile = System.getProperty("mga.checkpoint");
+		// With -Dmga.stream=<file>, every new best is written there as soon as it is found, and to <file>.mid
+		String streamFile = System.getProperty("mga.stream");
+		// With -Dmga.play, every new best is played as soon as it is found
+		boolean play = System.getProperty("mga.play") != null;
+		// With -Dmga.fitness=<features>, similarity is scored by those features, e.g. "pitchClasses:0.7,intervals:0.3"
+		String features = System.getProperty("mga.fitness");
+		// With -Dmga.indexed, candidates are compared with the originals through a CorpusIndex, for large corpora
+		boolean indexed = System.getProperty("mga.indexed") != null;
+		// With -Dmga.relative, individuals evolve the intervals between notes rather than their pitches
+		boolean relative = System.getProperty("mga.relative") != null;
+		// With -Dmga.adaptive, the mutation rate and population size adapt to the population's diversity
+		boolean adaptive = System.getProperty("mga.adaptive") != null;
+		// Scores come from the corpus file given as second argument (see ScoreCorpus), or else from files.txt
+		ArrayList<MusicSelection> pieces = args.length > 1 ? new ScoreCorpus(args[1]).pieces() : readPieces("files.txt");
+		
+//		MIDIWorkshop w = new MIDIWorkshop(pieces.get(0), "invention01.txt");
+//		System.exit(0);
+		
+		MusicGeneticAlgorithm g;
+		if (checkpointFile != null && new File(checkpointFile).exists()) {
+			g = Checkpoint.resume(checkpointFile);
+			System.out.println("Resuming from generation " + g.getGeneration());
+		}
+		else {
+			GAConfig config = new GAConfig();
+			config.setRelative(relative);
+			g = new MusicGeneticAlgorithm(new OriginalSet(pieces), config, 123456);
+		}
+		Checkpoint checkpoint = null;
+		if (checkpointFile != null) {
+			checkpoint = new Checkpoint(g, checkpointFile, checkpointInterval);
+			g.addListener(checkpoint);
+		}
+		if (args.length > 0) // optional number of worker threads
+			g.setParallelism(Integer.parseInt(args[0]));
+//		System.out.println(g.toNotes(pieces.get(0)));
+//		System.exit(0);
+		
+		if (features != null)
+			g.setFitnessFunction(FeatureFitness.parse(features));
+		if (indexed)
+			g.setIndexed(true);
+		if (adaptive)
+			g.setAdaptive(true);
+		BestStream stream = null;
+		ArrayList<CompletableFuture<Void>> consumers = new ArrayList<CompletableFuture<Void>>();
+		Writer streamOut = null;
+		LivePlayer player = null;
+		if (streamFile != null || play) {
+			stream = new BestStream(g, 16);
+			g.addListener(stream);
+			if (streamFile != null) {
+				streamOut = new BufferedWriter(new FileWriter(streamFile));
+				consumers.add(stream.consume(new ImprovementWriter(g, streamOut, streamFile + ".mid")));
+			}
+			if (play) {
+				try {
+					player = new LivePlayer();
+					consumers.add(stream.consume(player));
+				} catch (MidiUnavailableException e) {
+					System.out.println("No MIDI sequencer available: " + e.getMessage());
+				}
+			}
+		}
+		int steps = 0;
+		if (g.getGeneration() < numSteps)
+			steps = g.runAlgorithm(StoppingCriterion.anyOf(StoppingCriterion.maxGenerations(numSteps - g.getGeneration()),
+					StoppingCriterion.noImprovement(patience), StoppingCriterion.targetFitness(1)));
+		if (stream != null) {
+			stream.close();
+			for (CompletableFuture<Void> c : consumers)
+				c.join();
+			if (streamOut != null)
+				streamOut.close();
+			if (player != null) {
+				try {
+					player.finish();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				player.close();
+			}
+		}
+		if (checkpoint != null) {
+			checkpoint.save();
+			checkpoint.close();
+		}
+		System.out.println("Generations run: " + steps);
+		MusicSelection generated = g.getBestPiece();
+		System.out.println("Best result:\n" +generated);
+		System.out.println(g.fitnessOrig(generated)+", "+g.fitness(generated));
+		System.out.println(g.toNotes(generated));
+//		MIDIWorkshop ws = new MIDIWorkshop(generated, "Invention No. 1", "variant.mid");
+		generated.generateMIDI("Invention No. 1", "variant.mid");
+
+		System.out.println("total time taken: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+	}
+
+	// Reads every score named in the file list @listFile
+	public static ArrayList<MusicSelection> readPieces(String listFile) throws IOException {
+		ArrayList<MusicSelection> pieces = new ArrayList<MusicSelection>();
+		Scanner files = new Scanner(new File(listFile));
+		
+		while (files.hasNext()) // adds a new piece from each filename
+			pieces.add(readPiece(files.nextLine()));
+		return pieces;
+	}
+
+	/* Reads a score: the chunk size followed by the note, hold and rest values, separated by whitespace.
+	 * The file is read in one go and the numbers are parsed straight from its bytes.
+	 */
+	public static MusicSelection readPiece(String filename) throws IOException {
+		ArrayList<MusicSelection> voices = readVoices(filename);
+		if (voices.size() > 1)
+			throw new IOException(filename + " has " + voices.size() + " voices, expected one");
+		return voices.get(0);
+	}
+
+	/* Reads a score of one or more voices: the chunk size followed by the values of each voice, with a
+	 * '|' between voices. A score without '|' has a single voice, so every monophonic score is also read.
+	 */
+	public static ArrayList<MusicSelection> readVoices(String filename) throws IOException {
+		byte[] text = Files.readAllBytes(Paths.get(filename));
+		short[] values = new short[text.length / 2 + 1]; // every value takes at least two bytes with its separator
+		ArrayList<MusicSelection> voices = new ArrayList<MusicSelection>();
+		int count = -1; // the first number is the chunk size
+		int voiceStart = 0;
+		int chunkSize = 0;
+		int i = 0;
+		while (i < text.length) {
+			if (text[i] <= ' ') {
+				i++;
+				continue;
+			}
+			if (text[i] == '|' && count >= 0) {
+				voices.add(new MusicSelection(Arrays.copyOfRange(values, voiceStart, count), count - voiceStart, chunkSize));
+				voiceStart = count;
+				i++;
+				continue;
+			}
+			int value = 0;
+			int start = i;
+			while (i < text.length && text[i] >= '0' && text[i] <= '9')
+				value = value * 10 + (text[i++] - '0');
+			if (i == start || (i < text.length && text[i] > ' ' && text[i] != '|'))
+				throw new IOException(filename + ": not a number at byte " + start);
+			if (count < 0)
+				chunkSize = value;
+			else
+				values[count] = (short)value;
+			count++;
+		}
+		if (count < 0)
+			throw new IOException(filename + " is empty");
+		voices.add(new MusicSelection(Arrays.copyOfRange(values, voiceStart, count), count - voiceStart, chunkSize));
+		return voices;
+	}
+}
@@ -0,0 +1,15 @@
+import java.util.List;
+
+/*
+ * One feature of a piece, such as its interval histogram, and how similar a candidate is to the
+ * originals in it. The originals' side is computed once by prepare(); score() then only computes the
+ * candidate's side, from notes decoded once for all extractors (see FeatureFitness).
+ * score() may be called from several threads at once. See Features for the available extractors.
+ */
+public interface FeatureExtractor {
+	// Precomputes the features of the originals; @notes.get(j) holds the notes of @originals.get(j)
+	public void prepare(OriginalSet originals, List<NoteSequence> notes);
+
+	// Writes the similarity of @s, whose notes are @notes, to original j, between 0 and 1, to @out[j]
+	public void score(MusicSelection s, NoteSequence notes, double[] out);
+}
@@ -0,0 +1,78 @@
+import java.util.*;
+
+/*
+ * A FitnessFunction composed of weighted feature extractors (see Features). The candidate is scanned
+ * once, into a NoteSequence that every extractor reads, and the originals' features are computed once
+ * by prepare(); adding a feature therefore adds its own comparison work but no further scan of the
+ * chunks. The similarity to each original is the weighted mean of the features' similarities.
+ * pitchClasses reads the chunks through their pitch profile, as MusicGeneticAlgorithm does.
+ * An instance is prepared for one set of originals, so instances running on different OriginalSets
+ * each need their own.
+ *
+ * Example: FeatureFitness.parse("pitchClasses:0.6,intervals:0.2,rhythm:0.1,contour:0.1")
+ */
+public class FeatureFitness implements FitnessFunction {
+	// Per-thread decoded candidate and feature results
+	private static class Scratch {
+		NoteSequence notes = new NoteSequence();
+		double[][] results = new double[0][];
+	}
+
+	private ArrayList<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+	private ArrayList<Double> weights = new ArrayList<Double>();
+	private double totalWeight;
+	private int numOriginals;
+	private ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	public FeatureFitness() {}
+
+	/* Parses a comma-separated list of feature names (see Features.byName), each optionally followed by
+	 * a colon and its weight, which is 1 otherwise.
+	 */
+	public static FeatureFitness parse(String spec) {
+		FeatureFitness f = new FeatureFitness();
+		for (String term : spec.split(",")) {
+			String[] parts = term.trim().split(":", 2);
+			f.add(Features.byName(parts[0]), parts.length > 1 ? Double.parseDouble(parts[1]) : 1);
+		}
+		return f;
+	}
+
+	// Adds @extractor with weight @weight; must be called before prepare()
+	public void add(FeatureExtractor extractor, double weight) {
+		if (weight < 0)
+			throw new IllegalArgumentException("Feature weight must not be negative: " + weight);
+		extractors.add(extractor);
+		weights.add(weight);
+		totalWeight += weight;
+	}
+
+	public void prepare(OriginalSet originals) {
+		if (extractors.isEmpty() || totalWeight == 0)
+			throw new IllegalStateException("No weighted features");
+		ArrayList<NoteSequence> notes = new ArrayList<NoteSequence>(originals.size());
+		for (MusicSelection s : originals.getPieces())
+			notes.add(new NoteSequence(s));
+		List<NoteSequence> shared = Collections.unmodifiableList(notes);
+		for (FeatureExtractor e : extractors)
+			e.prepare(originals, shared);
+		numOriginals = originals.size();
+	}
+
+	public void similarities(MusicSelection s, double[] similarities) {
+		Scratch t = scratch.get();
+		if (t.results.length != extractors.size())
+			t.results = new double[extractors.size()][];
+		t.notes.decode(s);
+		Arrays.fill(similarities, 0, numOriginals, 0);
+		for (int k = 0; k < extractors.size(); k++) {
+			if (t.results[k] == null || t.results[k].length < numOriginals)
+				t.results[k] = new double[numOriginals];
+			double[] out = t.results[k];
+			extractors.get(k).score(s, t.notes, out);
+			double w = weights.get(k) / totalWeight;
+			for (int j = 0; j < numOriginals; j++)
+				similarities[j] += w * out[j];
+		}
+	}
+}
@@ -0,0 +1,211 @@
+import java.util.*;
+
+/*
+ * The feature extractors available to FeatureFitness. Each compares a candidate with every original
+ * and gives a similarity between 0 and 1:
+ * - pitchClasses: the built-in similarity of MusicGeneticAlgorithm, pitch classes chunk by chunk
+ * - intervals: cosine of the histograms of melodic intervals, up to an octave either way
+ * - rhythm: cosine of the number of note onsets in each bar
+ * - ngrams: Jaccard overlap of the sets of interval n-grams, which are independent of transposition
+ * - contour: fraction of successive notes that move in the same direction (up, down or repeated)
+ */
+public final class Features {
+	private static final int MAX_INTERVAL = 12; // larger intervals count as an octave
+	private static final int HISTOGRAM_SIZE = 2 * MAX_INTERVAL + 1;
+
+	private Features() {}
+
+	public static FeatureExtractor pitchClasses() {return new PitchClasses();}
+	public static FeatureExtractor intervals() {return new Intervals();}
+	public static FeatureExtractor rhythm() {return new Rhythm();}
+	public static FeatureExtractor ngrams(int n) {return new NGrams(n);}
+	public static FeatureExtractor contour() {return new Contour();}
+
+	// Extractor called @name, one of pitchClasses, intervals, rhythm, ngrams (trigrams) and contour
+	public static FeatureExtractor byName(String name) {
+		if (name.equals("pitchClasses"))
+			return pitchClasses();
+		else if (name.equals("intervals"))
+			return intervals();
+		else if (name.equals("rhythm"))
+			return rhythm();
+		else if (name.equals("ngrams"))
+			return ngrams(3);
+		else if (name.equals("contour"))
+			return contour();
+		throw new IllegalArgumentException("Unknown feature: " + name);
+	}
+
+	// Cosine similarity of @a and @b; 1 if both are zero, 0 if only one is
+	static double cosine(int[] a, int[] b, int n) {
+		long dot = 0;
+		long magA = 0;
+		long magB = 0;
+		for (int i = 0; i < n; i++) {
+			dot += (long)a[i] * b[i];
+			magA += (long)a[i] * a[i];
+			magB += (long)b[i] * b[i];
+		}
+		if (magA == 0 || magB == 0)
+			return magA == magB ? 1 : 0;
+		return dot / Math.sqrt((double)magA * magB);
+	}
+
+	// Same as MusicGeneticAlgorithm's own similarity, from the profiles of OriginalSet
+	private static class PitchClasses implements FeatureExtractor {
+		private PitchProfile[] profiles;
+
+		public void prepare(OriginalSet originals, List<NoteSequence> notes) {
+			profiles = originals.getProfiles();
+		}
+
+		public void score(MusicSelection s, NoteSequence notes, double[] out) {
+			SimilarityKernel kernel = SimilarityKernel.get();
+			PitchProfile candidate = kernel.profile(s);
+			if (SimilarityKernel.ENABLED)
+				kernel.score(candidate, profiles, out);
+			else
+				for (int j = 0; j < profiles.length; j++)
+					out[j] = profiles[j].similarity(candidate);
+		}
+	}
+
+	private static class Intervals implements FeatureExtractor {
+		private int[][] histograms;
+		private ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[HISTOGRAM_SIZE]);
+
+		public void prepare(OriginalSet originals, List<NoteSequence> notes) {
+			histograms = new int[notes.size()][];
+			for (int j = 0; j < histograms.length; j++)
+				histograms[j] = histogram(notes.get(j), new int[HISTOGRAM_SIZE]);
+		}
+
+		public void score(MusicSelection s, NoteSequence notes, double[] out) {
+			int[] h = histogram(notes, scratch.get());
+			for (int j = 0; j < histograms.length; j++)
+				out[j] = cosine(h, histograms[j], HISTOGRAM_SIZE);
+		}
+
+		private static int[] histogram(NoteSequence notes, int[] h) {
+			Arrays.fill(h, 0);
+			for (int n = 1; n < notes.count(); n++)
+				h[MAX_INTERVAL + Math.max(-MAX_INTERVAL, Math.min(MAX_INTERVAL, notes.getInterval(n)))]++;
+			return h;
+		}
+	}
+
+	private static class Rhythm implements FeatureExtractor {
+		private int[][] onsets;
+		private ThreadLocal<int[][]> scratch = ThreadLocal.withInitial(() -> new int[1][0]);
+
+		public void prepare(OriginalSet originals, List<NoteSequence> notes) {
+			onsets = new int[notes.size()][];
+			for (int j = 0; j < onsets.length; j++)
+				onsets[j] = perBar(notes.get(j), new int[bars(notes.get(j))]);
+		}
+
+		public void score(MusicSelection s, NoteSequence notes, double[] out) {
+			int[][] buffer = scratch.get();
+			int bars = bars(notes);
+			if (buffer[0].length < bars)
+				buffer[0] = new int[bars];
+			int[] counts = perBar(notes, buffer[0]);
+			for (int j = 0; j < onsets.length; j++)
+				out[j] = cosine(counts, onsets[j], Math.min(bars, onsets[j].length));
+		}
+
+		// The chunk size is the number of chunks per whole note, i.e. per bar of 4/4
+		private static int bars(NoteSequence notes) {
+			return (notes.length() + notes.getChunkSize() - 1) / notes.getChunkSize();
+		}
+
+		private static int[] perBar(NoteSequence notes, int[] counts) {
+			Arrays.fill(counts, 0, bars(notes), 0);
+			for (int n = 0; n < notes.count(); n++)
+				counts[notes.getOnset(n) / notes.getChunkSize()]++;
+			return counts;
+		}
+	}
+
+	private static class NGrams implements FeatureExtractor {
+		private int n;
+		private long[][] grams; // sorted and distinct
+		private ThreadLocal<long[][]> scratch = ThreadLocal.withInitial(() -> new long[1][0]);
+
+		NGrams(int n) {
+			if (n < 1 || n > 7)
+				throw new IllegalArgumentException("N-grams must have 1 to 7 intervals: " + n); // 8 bits each in a long
+			this.n = n;
+		}
+
+		public void prepare(OriginalSet originals, List<NoteSequence> notes) {
+			grams = new long[notes.size()][];
+			for (int j = 0; j < grams.length; j++) {
+				long[] g = new long[Math.max(0, notes.get(j).count() - n)];
+				grams[j] = Arrays.copyOf(g, distinctGrams(notes.get(j), g));
+			}
+		}
+
+		public void score(MusicSelection s, NoteSequence notes, double[] out) {
+			long[][] buffer = scratch.get();
+			if (buffer[0].length < notes.count())
+				buffer[0] = new long[notes.count()];
+			long[] g = buffer[0];
+			int size = distinctGrams(notes, g);
+			for (int j = 0; j < grams.length; j++) {
+				long[] o = grams[j];
+				int common = 0;
+				for (int a = 0, b = 0; a < size && b < o.length; ) {
+					if (g[a] < o[b])
+						a++;
+					else if (g[a] > o[b])
+						b++;
+					else {
+						common++;
+						a++;
+						b++;
+					}
+				}
+				int union = size + o.length - common;
+				out[j] = union == 0 ? 1 : (double)common / union;
+			}
+		}
+
+		// Writes the distinct n-grams of successive intervals to the start of @g, sorted; returns their number
+		private int distinctGrams(NoteSequence notes, long[] g) {
+			int count = Math.max(0, notes.count() - n);
+			for (int start = 0; start < count; start++) {
+				long key = 0;
+				for (int k = 1; k <= n; k++)
+					key = key * 256 + (notes.getInterval(start + k) + 128);
+				g[start] = key;
+			}
+			Arrays.sort(g, 0, count);
+			int size = 0;
+			for (int i = 0; i < count; i++)
+				if (size == 0 || g[i] != g[size-1])
+					g[size++] = g[i];
+			return size;
+		}
+	}
+
+	private static class Contour implements FeatureExtractor {
+		private List<NoteSequence> originals;
+
+		public void prepare(OriginalSet originals, List<NoteSequence> notes) {
+			this.originals = notes;
+		}
+
+		public void score(MusicSelection s, NoteSequence notes, double[] out) {
+			for (int j = 0; j < originals.size(); j++) {
+				NoteSequence o = originals.get(j);
+				int steps = Math.min(notes.count(), o.count()) - 1;
+				int same = 0;
+				for (int k = 1; k <= steps; k++)
+					if (Integer.signum(notes.getInterval(k)) == Integer.signum(o.getInterval(k)))
+						same++;
+				out[j] = steps <= 0 ? 0 : (double)same / steps;
+			}
+		}
+	}
+}
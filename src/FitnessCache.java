@@ -0,0 +1,76 @@
+import java.util.*;
+
+/*
+ * Content-addressed cache of fitness values against the original pieces.
+ * Genomes with identical chunks (elites, unmutated copies of tournament winners) are looked up
+ * by value, so they are only scored once. Holds at most @capacity entries, evicting the least
+ * recently used one when full. The key of an evicted entry is reused for the new one, so a full
+ * cache does not allocate a snapshot per insertion.
+ */
+public class FitnessCache {
+	private LinkedHashMap<Key, Double> entries;
+	private int capacity;
+	private Key probe = new Key(null); // for lookups, so they do not allocate
+	private long hits;
+	private long misses;
+
+	public FitnessCache(int capacity) {
+		this.capacity = capacity;
+		entries = new LinkedHashMap<Key, Double>(capacity, 0.75f, true);
+	}
+
+	// Returns the cached fitness of a piece with the same chunks as @s, or null if there is none
+	public synchronized Double get(MusicSelection s) {
+		probe.set(s);
+		Double f = entries.get(probe);
+		probe.set(null);
+		if (f == null)
+			misses++;
+		else
+			hits++;
+		return f;
+	}
+
+	// Stores a snapshot of the chunks of @s so later changes to @s do not corrupt the key
+	public synchronized void put(MusicSelection s, double fitness) {
+		if (capacity <= 0)
+			return;
+		Key key;
+		if (entries.size() >= capacity) {
+			Iterator<Key> eldest = entries.keySet().iterator();
+			key = eldest.next();
+			eldest.remove();
+			key.s.copyChunksFrom(s);
+			key.set(key.s);
+		}
+		else
+			key = new Key(s.slice(0, s.length()));
+		entries.put(key, fitness);
+	}
+
+	public synchronized long getHits() {return hits;}
+	public synchronized long getMisses() {return misses;}
+	public synchronized int size() {return entries.size();}
+	public synchronized void clear() {entries.clear();}
+
+	// Compares pieces by their chunks rather than by identity
+	private static class Key {
+		private MusicSelection s;
+		private int hash;
+
+		Key(MusicSelection s) {
+			set(s);
+		}
+
+		void set(MusicSelection s) {
+			this.s = s;
+			hash = s == null ? 0 : s.chunkHash();
+		}
+
+		public int hashCode() {return hash;}
+
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key)o).hash == hash && ((Key)o).s.sameChunks(s);
+		}
+	}
+}
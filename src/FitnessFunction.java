@@ -0,0 +1,13 @@
+/*
+ * Similarity of candidates to the original pieces, replacing the built-in pitch-class similarity of
+ * MusicGeneticAlgorithm (see setFitnessFunction). The similarities to the originals are combined
+ * according to the fitness code as before. See FeatureFitness for one composed of features.
+ * similarities() may be called from several threads at once.
+ */
+public interface FitnessFunction {
+	// Precomputes whatever depends only on @originals; called once, before any similarities()
+	public void prepare(OriginalSet originals);
+
+	// Writes the similarity of @s to original j, between 0 and 1, to @similarities[j]
+	public void similarities(MusicSelection s, double[] similarities);
+}
@@ -0,0 +1,108 @@
+/*
+ * Tunable parameters of MusicGeneticAlgorithm. The defaults are the values the algorithm has always used.
+ * A configuration is read once when a MusicGeneticAlgorithm is created; changing it afterwards does
+ * not affect existing instances.
+ */
+public class GAConfig {
+	// Names accepted by set(), in the order of values()
+	public static final String[] PARAMETERS = {"fitnessCode", "individualsPerOriginal", "mutationRate",
+			"crossoverRate", "randomInitialized", "mutationDistance", "optimalFitness", "relative"};
+
+	private int fitnessCode = 0; // combining similarities to several originals: 0 = average, 1 = min, 2 = max
+	private int individualsPerOriginal = 50;
+	private double mutationRate = 0.05; // probability of mutating each note
+	private double crossoverRate = 0.9;
+	private double randomInitialized = 0.5; // fraction of the initial population that is random
+	private int mutationDistance = 2; // 2 = mutation by whole step
+	private double optimalFitness = 0.95; // similarity to the originals that scores best
+	private boolean relative = false; // evolve intervals between notes instead of pitches (see MusicSelection)
+
+	public GAConfig() {}
+
+	public GAConfig(GAConfig c) {
+		fitnessCode = c.fitnessCode;
+		individualsPerOriginal = c.individualsPerOriginal;
+		mutationRate = c.mutationRate;
+		crossoverRate = c.crossoverRate;
+		randomInitialized = c.randomInitialized;
+		mutationDistance = c.mutationDistance;
+		optimalFitness = c.optimalFitness;
+		relative = c.relative;
+	}
+
+	public int getFitnessCode() {return fitnessCode;}
+	public int getIndividualsPerOriginal() {return individualsPerOriginal;}
+	public double getMutationRate() {return mutationRate;}
+	public double getCrossoverRate() {return crossoverRate;}
+	public double getRandomInitialized() {return randomInitialized;}
+	public int getMutationDistance() {return mutationDistance;}
+	public double getOptimalFitness() {return optimalFitness;}
+	public boolean isRelative() {return relative;}
+
+	public void setFitnessCode(int c) {
+		if (c < 0 || c > 2)
+			throw new IllegalArgumentException("Fitness code must be 0, 1 or 2: " + c);
+		fitnessCode = c;
+	}
+
+	public void setIndividualsPerOriginal(int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("Individuals per original must be positive: " + n);
+		individualsPerOriginal = n;
+	}
+
+	public void setMutationRate(double p) {mutationRate = probability("Mutation rate", p);}
+	public void setCrossoverRate(double p) {crossoverRate = probability("Crossover rate", p);}
+	public void setRandomInitialized(double p) {randomInitialized = probability("Random fraction", p);}
+
+	public void setMutationDistance(int d) {
+		if (d < 1)
+			throw new IllegalArgumentException("Mutation distance must be positive: " + d);
+		mutationDistance = d;
+	}
+
+	public void setOptimalFitness(double f) {optimalFitness = f;}
+	public void setRelative(boolean r) {relative = r;}
+
+	// Sets the parameter called @name (one of PARAMETERS) to @value
+	public void set(String name, double value) {
+		if (name.equals("fitnessCode"))
+			setFitnessCode((int)value);
+		else if (name.equals("individualsPerOriginal"))
+			setIndividualsPerOriginal((int)value);
+		else if (name.equals("mutationRate"))
+			setMutationRate(value);
+		else if (name.equals("crossoverRate"))
+			setCrossoverRate(value);
+		else if (name.equals("randomInitialized"))
+			setRandomInitialized(value);
+		else if (name.equals("mutationDistance"))
+			setMutationDistance((int)value);
+		else if (name.equals("optimalFitness"))
+			setOptimalFitness(value);
+		else if (name.equals("relative"))
+			setRelative(value != 0);
+		else
+			throw new IllegalArgumentException("Unknown parameter: " + name);
+	}
+
+	// Parameter values in the order of PARAMETERS
+	public double[] values() {
+		return new double[] {fitnessCode, individualsPerOriginal, mutationRate, crossoverRate,
+				randomInitialized, mutationDistance, optimalFitness, relative ? 1 : 0};
+	}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		double[] values = values();
+		for (int i = 0; i < PARAMETERS.length; i++)
+			s.append(i == 0 ? "" : " ").append(PARAMETERS[i]).append('=').append(values[i]);
+		return s.toString();
+	}
+
+	private static double probability(String what, double p) {
+		if (p < 0 || p > 1)
+			throw new IllegalArgumentException(what + " must be between 0 and 1: " + p);
+		return p;
+	}
+}
@@ -0,0 +1,41 @@
+import jdk.jfr.*;
+
+/*
+ * Flight Recorder event committed once per generation with the contents of GenerationStats.
+ * Record with e.g. java -XX:StartFlightRecording:filename=run.jfr Driver
+ */
+@Name("musicga.Generation")
+@Label("GA Generation")
+@Category("Music GA")
+@StackTrace(false)
+public class GenerationEvent extends Event {
+	@Label("Generation") public int generation;
+	@Label("Population Size") public int populationSize;
+	@Label("Best Fitness") public double bestFitness;
+	@Label("Mean Fitness") public double meanFitness;
+	@Label("Fitness Standard Deviation") public double fitnessStdDev;
+	@Label("Mutation Rate") public double mutationRate;
+	@Label("Evaluations") public long evaluations;
+	@Label("Cache Hits") public long cacheHits;
+	@Label("Scoring Time") @Timespan(Timespan.NANOSECONDS) public long scoringNanos;
+	@Label("Selection Time") @Timespan(Timespan.NANOSECONDS) public long selectionNanos;
+	@Label("Crossover Time") @Timespan(Timespan.NANOSECONDS) public long crossoverNanos;
+	@Label("Mutation Time") @Timespan(Timespan.NANOSECONDS) public long mutationNanos;
+	@Label("Allocated") @DataAmount public long allocatedBytes;
+
+	public void set(GenerationStats s) {
+		generation = s.generation;
+		populationSize = s.populationSize;
+		bestFitness = s.bestFitness;
+		meanFitness = s.meanFitness;
+		fitnessStdDev = s.fitnessStdDev;
+		mutationRate = s.mutationRate;
+		evaluations = s.evaluations;
+		cacheHits = s.cacheHits;
+		scoringNanos = s.scoringNanos;
+		selectionNanos = s.selectionNanos;
+		crossoverNanos = s.crossoverNanos;
+		mutationNanos = s.mutationNanos;
+		allocatedBytes = s.allocatedBytes;
+	}
+}
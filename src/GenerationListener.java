@@ -0,0 +1,5 @@
+// Receives the measurements of every generation, see MusicGeneticAlgorithm.addListener().
+public interface GenerationListener {
+	// Called on the thread running the algorithm once the next population is complete
+	public void generationCompleted(GenerationStats stats);
+}
@@ -0,0 +1,203 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.*;
+
+/*
+ * Long-running HTTP service that generates variations on request, so that repeated requests do not
+ * pay for JVM startup, score parsing, equalization or JIT warm-up.
+ * Corpora are named at startup; each is read and equalized once into an OriginalSet that all
+ * requests share. The service listens on the loopback interface only.
+ * Connections are served by a bounded thread pool with a bounded queue; connections arriving while
+ * the queue is full are closed without a response. Generation itself is limited to one run per worker
+ * slot (by default one per core) by a fair semaphore, so concurrent requests start in arrival order
+ * and none is starved. A request builds its population only once it holds a slot.
+ *
+ * Endpoints:
+ *   GET /corpora
+ *       names of the loaded corpora, one per line
+ *   GET /generate?corpus=default&seed=1&generations=100&millis=0&patience=0&fitness=0&format=notes
+ *       runs the genetic algorithm and returns its best piece as note names (notes), chunk values
+ *       (chunks) or a Standard MIDI File (midi). All parameters are optional; millis and patience
+ *       add a wall-clock limit and an early stop without improvement when positive, and
+ *       features=intervals:0.5,contour:0.5 scores with those features (see FeatureFitness);
+ *       relative=1 evolves intervals rather than pitches (see MusicSelection).
+ *
+ * Usage: java GenerationServer [port=8080] [threads=4] [warmup=20] [name=files.txt ...]
+ * Each name=path argument loads a corpus, either a list of score files or a ScoreCorpus file;
+ * without any, files.txt is loaded as "default".
+ */
+public class GenerationServer {
+	private static final int MAX_GENERATIONS = 100000;
+	private static final int CONNECTIONS_PER_WORKER = 4; // connection threads, most of them waiting for a slot
+	private static final int MAX_QUEUED_CONNECTIONS = 64;
+
+	private HttpServer server;
+	private ExecutorService connections;
+	private Semaphore workers;
+	private Map<String, OriginalSet> corpora = new ConcurrentHashMap<String, OriginalSet>();
+
+	// Serves on @port, running at most @threads generations at a time
+	public GenerationServer(int port, int threads) throws IOException {
+		workers = new Semaphore(threads, true);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		int connectionThreads = threads * CONNECTIONS_PER_WORKER;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(connectionThreads, connectionThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED_CONNECTIONS));
+		pool.allowCoreThreadTimeOut(true);
+		connections = pool;
+		server.setExecutor(connections);
+		server.createContext("/corpora", this::listCorpora);
+		server.createContext("/generate", this::generate);
+	}
+
+	// Loads the corpus at @path, a list of score files or a ScoreCorpus file, under @name
+	public void addCorpus(String name, String path) throws IOException {
+		ArrayList<MusicSelection> pieces = ScoreCorpus.isCorpus(path) ? new ScoreCorpus(path).pieces() : Driver.readPieces(path);
+		corpora.put(name, new OriginalSet(pieces));
+	}
+
+	/* Runs @generations generations on every corpus so the hot paths are compiled before the first
+	 * request arrives.
+	 */
+	public void warmUp(int generations) throws IOException {
+		for (OriginalSet originals : corpora.values())
+			new MusicGeneticAlgorithm(originals, new GAConfig(), 0).runAlgorithm(generations);
+	}
+
+	public void start() {server.start();}
+
+	public void stop() {
+		server.stop(0);
+		connections.shutdown();
+	}
+
+	private void listCorpora(HttpExchange exchange) throws IOException {
+		StringBuilder names = new StringBuilder();
+		for (String name : new TreeSet<String>(corpora.keySet()))
+			names.append(name).append('\n');
+		respond(exchange, 200, "text/plain; charset=utf-8", names.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void generate(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			String corpus = query.getOrDefault("corpus", "default");
+			OriginalSet originals = corpora.get(corpus);
+			if (originals == null) {
+				respond(exchange, 404, "text/plain; charset=utf-8", ("Unknown corpus: " + corpus + "\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			long seed = Long.parseLong(query.getOrDefault("seed", "123456"));
+			int generations = Integer.parseInt(query.getOrDefault("generations", "100"));
+			long millis = Long.parseLong(query.getOrDefault("millis", "0"));
+			int patience = Integer.parseInt(query.getOrDefault("patience", "0"));
+			String format = query.getOrDefault("format", "notes");
+			if (generations < 1 || generations > MAX_GENERATIONS)
+				throw new IllegalArgumentException("generations must be between 1 and " + MAX_GENERATIONS);
+			if (!format.equals("notes") && !format.equals("chunks") && !format.equals("midi"))
+				throw new IllegalArgumentException("Unknown format: " + format);
+			GAConfig config = new GAConfig();
+			config.setFitnessCode(Integer.parseInt(query.getOrDefault("fitness", "0")));
+			config.setRelative(query.getOrDefault("relative", "0").equals("1"));
+
+			StoppingCriterion stop = StoppingCriterion.maxGenerations(generations);
+			if (millis > 0)
+				stop = StoppingCriterion.anyOf(stop, StoppingCriterion.wallClock(millis));
+			if (patience > 0)
+				stop = StoppingCriterion.anyOf(stop, StoppingCriterion.noImprovement(patience));
+
+			FeatureFitness features = query.containsKey("features") ? FeatureFitness.parse(query.get("features")) : null;
+			MusicGeneticAlgorithm g;
+			MusicSelection best;
+			workers.acquire();
+			try {
+				g = new MusicGeneticAlgorithm(originals, config, seed);
+				if (features != null)
+					g.setFitnessFunction(features);
+				g.runAlgorithm(stop);
+				best = g.getBestPiece();
+			} finally {
+				workers.release();
+			}
+
+			if (format.equals("midi")) {
+				ByteBuffer midi = MIDIWorkshop.encode(best, corpus, null);
+				byte[] bytes = new byte[midi.remaining()];
+				midi.get(bytes);
+				respond(exchange, 200, "audio/midi", bytes);
+			}
+			else {
+				String body = (format.equals("notes") ? g.toNotes(best) : best.toString()) + "\n"
+						+ "fitness " + g.fitness(best) + " similarity " + g.fitnessOrig(best)
+						+ " generations " + g.getGeneration() + "\n";
+				respond(exchange, 200, "text/plain; charset=utf-8", body.getBytes(StandardCharsets.UTF_8));
+			}
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			respond(exchange, 400, "text/plain; charset=utf-8", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "text/plain; charset=utf-8", "Interrupted\n".getBytes(StandardCharsets.UTF_8));
+		} catch (RuntimeException e) {
+			respond(exchange, 500, "text/plain; charset=utf-8", (e + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		HashMap<String, String> params = new HashMap<String, String>();
+		if (query == null)
+			return params;
+		for (String pair : query.split("&")) {
+			if (pair.isEmpty())
+				continue;
+			String[] kv = pair.split("=", 2);
+			params.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+					kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+		}
+		return params;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	public static void main(String args[]) throws IOException {
+		int port = 8080;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int warmup = 20;
+		LinkedHashMap<String, String> paths = new LinkedHashMap<String, String>();
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			if (kv.length < 2)
+				throw new IllegalArgumentException("Expected name=value: " + arg);
+			if (kv[0].equals("port"))
+				port = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("threads"))
+				threads = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("warmup"))
+				warmup = Integer.parseInt(kv[1]);
+			else
+				paths.put(kv[0], kv[1]);
+		}
+		if (paths.isEmpty())
+			paths.put("default", "files.txt");
+
+		GenerationServer server = new GenerationServer(port, threads);
+		for (Map.Entry<String, String> corpus : paths.entrySet())
+			server.addCorpus(corpus.getKey(), corpus.getValue());
+		if (warmup > 0)
+			server.warmUp(warmup);
+		server.start();
+		System.out.println("Serving " + paths.keySet() + " on localhost port " + port + " with " + threads + " workers");
+	}
+}
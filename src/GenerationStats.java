@@ -0,0 +1,29 @@
+/*
+ * Measurements of one generation of MusicGeneticAlgorithm.runAlgorithm().
+ * Fitness figures describe the population the generation selected from. Phase times are summed
+ * over all threads, so in parallel mode they can exceed the elapsed time.
+ */
+public class GenerationStats {
+	public int generation;
+	public int populationSize;
+	public double bestFitness;
+	public double meanFitness;
+	public double fitnessStdDev; // spread of fitness, as a measure of diversity
+	public double mutationRate; // per-note mutation probability used to breed the generation
+	public long evaluations; // full fitness computations during the generation
+	public long cacheHits; // fitness values found in the content cache
+	public long scoringNanos;
+	public long selectionNanos;
+	public long crossoverNanos;
+	public long mutationNanos;
+	public long elapsedNanos;
+	public long allocatedBytes; // by the generation's thread and its pool tasks, -1 if unsupported
+
+	public String toString() {
+		return String.format("gen %d: pop %d best %.5f mean %.5f sd %.5f mut %.3f evals %d hits %d " +
+				"score %.1fms select %.1fms cross %.1fms mutate %.1fms total %.1fms alloc %dKB",
+				generation, populationSize, bestFitness, meanFitness, fitnessStdDev, mutationRate, evaluations, cacheHits,
+				scoringNanos / 1e6, selectionNanos / 1e6, crossoverNanos / 1e6, mutationNanos / 1e6,
+				elapsedNanos / 1e6, allocatedBytes / 1024);
+	}
+}
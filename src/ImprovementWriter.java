@@ -0,0 +1,45 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.function.Consumer;
+
+/*
+ * Writes the improvements of a BestStream as they arrive: one line per improvement with its
+ * generation, fitness and notes, and optionally the latest best as a MIDI file that is replaced on
+ * every improvement. Attach it with BestStream.consume().
+ */
+public class ImprovementWriter implements Consumer<BestStream.Improvement> {
+	private MusicGeneticAlgorithm ga;
+	private Writer out;
+	private Path midiFile;
+	private ByteBuffer buffer;
+
+	// Writes note lines to @out and, unless @midiFile is null, the latest best to @midiFile
+	public ImprovementWriter(MusicGeneticAlgorithm ga, Writer out, String midiFile) {
+		this.ga = ga;
+		this.out = out;
+		this.midiFile = midiFile == null ? null : Paths.get(midiFile);
+	}
+
+	public void accept(BestStream.Improvement improvement) {
+		try {
+			out.write("gen " + improvement.generation + " fitness " + improvement.fitness + ": "
+					+ ga.toNotes(improvement.piece) + "\n");
+			out.flush();
+			if (midiFile != null) {
+				buffer = MIDIWorkshop.encode(improvement.piece, "Generation " + improvement.generation, buffer);
+				// Written aside and moved into place, so a player never sees a partial file
+				Path temp = midiFile.resolveSibling(midiFile.getFileName() + ".tmp");
+				try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+				}
+				Files.move(temp, midiFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
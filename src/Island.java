@@ -0,0 +1,21 @@
+import java.io.IOException;
+import java.util.*;
+
+/*
+ * One population in the island model (see IslandModel).
+ * Islands evolve independently and only exchange individuals through emigrants() and immigrate().
+ */
+public interface Island {
+	// Runs @numSteps generations
+	public void evolve(int numSteps) throws IOException;
+
+	// Returns copies of the @k fittest individuals
+	public ArrayList<MusicSelection> emigrants(int k) throws IOException;
+
+	// Replaces the least fit individuals with @migrants
+	public void immigrate(List<MusicSelection> migrants) throws IOException;
+
+	public MusicSelection getBestPiece() throws IOException;
+
+	public void close() throws IOException;
+}
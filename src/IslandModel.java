@@ -0,0 +1,160 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Island-model genetic algorithm.
+ * Several independent populations (islands) evolve concurrently, each against its own subset of the
+ * original pieces. Every migrationInterval generations each island sends copies of its fittest
+ * individuals to its neighbours, which replace their least fit individuals with them.
+ * Islands run either as threads in this JVM (LocalIsland) or as separate JVMs (ProcessIsland).
+ */
+public class IslandModel {
+	// Topologies: which islands receive the emigrants of island i
+	public static final int RING = 0; // island i+1
+	public static final int FULLY_CONNECTED = 1; // every other island
+
+	private ArrayList<Island> islands;
+	private ArrayList<MusicSelection> origPieces;
+	private OriginalSet allOriginals; // all subsets together, for judging the islands' bests
+	private ExecutorService executor;
+	private int migrationInterval = 10;
+	private int numMigrants = 2;
+	private int topology = RING;
+
+	/* Creates one island per subset of original pieces.
+	 * All pieces are first equalized to a common chunk size so that migrants are compatible everywhere.
+	 */
+	public IslandModel(List<ArrayList<MusicSelection>> subsets, boolean separateProcesses, long seed) throws IOException {
+		ArrayList<MusicSelection> all = new ArrayList<MusicSelection>();
+		for (ArrayList<MusicSelection> subset : subsets)
+			all.addAll(subset);
+		int chunkSize = MusicGeneticAlgorithm.commonChunkSize(all);
+
+		origPieces = new ArrayList<MusicSelection>();
+		islands = new ArrayList<Island>(subsets.size());
+		for (int i = 0; i < subsets.size(); i++) {
+			ArrayList<MusicSelection> copies = new ArrayList<MusicSelection>();
+			for (MusicSelection s : subsets.get(i)) {
+				MusicSelection copy = new MusicSelection(s);
+				MusicGeneticAlgorithm.equalize(copy, chunkSize);
+				copies.add(copy);
+				origPieces.add(copy);
+			}
+			if (separateProcesses)
+				islands.add(new ProcessIsland(copies, seed + i));
+			else
+				islands.add(new LocalIsland(copies, seed + i));
+		}
+		allOriginals = new OriginalSet(origPieces);
+		executor = Executors.newFixedThreadPool(islands.size());
+	}
+
+	// Splits @pieces round-robin over @numIslands islands; with fewer pieces than islands every island gets all of them
+	public static List<ArrayList<MusicSelection>> partition(ArrayList<MusicSelection> pieces, int numIslands) {
+		List<ArrayList<MusicSelection>> subsets = new ArrayList<ArrayList<MusicSelection>>(numIslands);
+		for (int i = 0; i < numIslands; i++)
+			subsets.add(new ArrayList<MusicSelection>());
+		for (int i = 0; i < numIslands; i++) {
+			if (pieces.size() < numIslands)
+				subsets.get(i).addAll(pieces);
+			else
+				for (int j = i; j < pieces.size(); j += numIslands)
+					subsets.get(i).add(pieces.get(j));
+		}
+		return subsets;
+	}
+
+	public void setMigrationInterval(int generations) {migrationInterval = generations;}
+	public void setNumMigrants(int n) {numMigrants = n;}
+	public void setTopology(int t) {topology = t;}
+
+	// Evolves all islands for @numSteps generations, migrating every migrationInterval generations
+	public void runAlgorithm(int numSteps) throws IOException {
+		for (int done = 0; done < numSteps; done += migrationInterval) {
+			int steps = Math.min(migrationInterval, numSteps - done);
+			ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (Island island : islands)
+				tasks.add(() -> {island.evolve(steps); return null;});
+			invokeAll(tasks);
+			if (done + steps < numSteps)
+				migrate();
+		}
+	}
+
+	// Collects emigrants from every island first, then delivers them according to the topology
+	private void migrate() throws IOException {
+		int n = islands.size();
+		if (n < 2)
+			return;
+		ArrayList<ArrayList<MusicSelection>> emigrants = new ArrayList<ArrayList<MusicSelection>>(n);
+		for (Island island : islands)
+			emigrants.add(island.emigrants(numMigrants));
+		for (int i = 0; i < n; i++) {
+			ArrayList<MusicSelection> arriving = new ArrayList<MusicSelection>();
+			if (topology == RING)
+				arriving.addAll(emigrants.get((i + n - 1) % n));
+			else
+				for (int j = 0; j < n; j++)
+					if (j != i)
+						arriving.addAll(emigrants.get(j));
+			islands.get(i).immigrate(arriving);
+		}
+	}
+
+	/* Returns the best piece over all islands.
+	 * Island bests are scored against different subsets, so they are compared against all original pieces.
+	 */
+	public MusicSelection getBestPiece() throws IOException {
+		ArrayList<MusicSelection> bests = new ArrayList<MusicSelection>(islands.size());
+		for (Island island : islands)
+			bests.add(island.getBestPiece());
+		GAConfig config = new GAConfig();
+		MusicSelection best = bests.get(0);
+		double bestFitness = MusicGeneticAlgorithm.fitness(allOriginals, config, best);
+		for (int i = 1; i < bests.size(); i++) {
+			double f = MusicGeneticAlgorithm.fitness(allOriginals, config, bests.get(i));
+			if (f > bestFitness) {
+				best = bests.get(i);
+				bestFitness = f;
+			}
+		}
+		return best;
+	}
+
+	public void close() throws IOException {
+		for (Island island : islands)
+			island.close();
+		executor.shutdown();
+	}
+
+	/* Runs the island model on the pieces in files.txt.
+	 * Arguments: number of islands, then optionally "processes" to run each island in its own JVM.
+	 */
+	public static void main(String args[]) throws IOException {
+		long startTime = System.currentTimeMillis();
+		int numIslands = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		boolean separateProcesses = args.length > 1 && args[1].equals("processes");
+		ArrayList<MusicSelection> pieces = Driver.readPieces("files.txt");
+		IslandModel model = new IslandModel(partition(pieces, numIslands), separateProcesses, 123456);
+		model.runAlgorithm(100);
+		MusicSelection best = model.getBestPiece();
+		model.close();
+		System.out.println("Best result:\n" + best);
+		System.out.println("total time taken: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+	}
+
+	private void invokeAll(ArrayList<Callable<Void>> tasks) throws IOException {
+		try {
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,50 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import javax.sound.midi.*;
+
+/*
+ * Plays the improvements of a BestStream on a javax.sound.midi sequencer while the run goes on.
+ * The current best is looped; each improvement replaces it at the same position, so the music
+ * changes without starting over. Attach it with BestStream.consume().
+ */
+public class LivePlayer implements Consumer<BestStream.Improvement>, Closeable {
+	private Sequencer sequencer;
+	private ByteBuffer buffer;
+
+	// Opens the default sequencer, connected to the default synthesizer
+	public LivePlayer() throws MidiUnavailableException {
+		sequencer = MidiSystem.getSequencer();
+		sequencer.open();
+	}
+
+	public synchronized void accept(BestStream.Improvement improvement) {
+		buffer = MIDIWorkshop.encode(improvement.piece, "Generation " + improvement.generation, buffer);
+		try {
+			Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(buffer.array(), 0, buffer.limit()));
+			long position = sequencer.getSequence() == null ? 0 : sequencer.getTickPosition();
+			sequencer.setSequence(sequence);
+			sequencer.setTickPosition(position < sequence.getTickLength() ? position : 0);
+			sequencer.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
+			if (!sequencer.isRunning())
+				sequencer.start();
+		} catch (InvalidMidiDataException | IOException e) {
+			throw new IllegalStateException("Could not play generation " + improvement.generation, e);
+		}
+	}
+
+	// Lets the current piece play to its end instead of looping, and waits for it
+	public void finish() throws InterruptedException {
+		synchronized (this) {
+			sequencer.setLoopCount(0);
+		}
+		while (sequencer.isRunning())
+			Thread.sleep(100);
+	}
+
+	public synchronized void close() {
+		sequencer.stop();
+		sequencer.close();
+	}
+}
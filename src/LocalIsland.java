@@ -0,0 +1,17 @@
+import java.io.IOException;
+import java.util.*;
+
+// Island running in this JVM; IslandModel evolves each one on its own thread.
+public class LocalIsland implements Island {
+	private MusicGeneticAlgorithm ga;
+
+	public LocalIsland(ArrayList<MusicSelection> pieces, long seed) {
+		ga = new MusicGeneticAlgorithm(pieces, seed);
+	}
+
+	public void evolve(int numSteps) throws IOException {ga.runAlgorithm(numSteps);}
+	public ArrayList<MusicSelection> emigrants(int k) {return ga.getTopIndividuals(k);}
+	public void immigrate(List<MusicSelection> migrants) {ga.acceptMigrants(migrants);}
+	public MusicSelection getBestPiece() {return new MusicSelection(ga.getBestPiece());}
+	public void close() {}
+}
@@ -1,57 +1,200 @@
-import java.util.*;
-import java.io.*;
-
-import javax.sound.midi.*;
-
-public class MIDIWorkshop {
-
-	PrintWriter out;
-	File data;
-	private final int HOLD = 128;
-	private final int REST = 129;
-
-	// Outputs the MIDI form of the MusicSelection @source at the location @destination
-	public MIDIWorkshop(MusicSelection source, String songName, String destination) throws InvalidMidiDataException, IOException {
-		data = new File(destination);
-		out = new PrintWriter(new FileWriter(data));
-		out.println("MFile 1 2 96");
-		out.println("MTrk");
-		out.println("0 TimeSig 4/4 24 8");
-		out.println("0 KeySig 0 major");
-		out.println("0 Tempo 600000");
-		out.println("0 Meta TrkName \""+ songName + "\"");
-		out.println("1 Meta TrkEnd");
-		out.println("TrkEnd");
-		out.println("MTrk");
-		out.println("0 Meta TrkName \"Piano\"");
-		// 25 midi units per 16th note
-		int MIDI_UNITS_PER_NOTE = 25 * 16 / source.getChunkSize();
-		int count = MIDI_UNITS_PER_NOTE;
-		ArrayList<Integer> chunks = source.getChunks();
-		int i = 0;
-		while (i < chunks.size()) {
-			int curr = chunks.get(i);
-			if (isNote(curr)) {
-				out.println(count+" On ch=1 n="+curr+" v=70");
-				do {
-					i++;
-					count += MIDI_UNITS_PER_NOTE;
-				}
-				while(i<chunks.size() && chunks.get(i)==HOLD);
-				out.println(count+" Off ch=1 n="+curr+" v=70");
-			}
-			else if (curr == REST) {
-				do {
-					i++;
-					count += MIDI_UNITS_PER_NOTE;
-				}
-				while(i<chunks.size() && chunks.get(i)==HOLD);
-			}
-		}
-		out.println((count+1)+" Meta TrkEnd");
-		out.println("TrkEnd");
-		out.close();
-	}	
-
-	public boolean isNote(int n) {return (n>=0 && n<HOLD);}
-}
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.IntUnaryOperator;
+
+/*
+ * Writes MusicSelections as Standard MIDI Files (format 1).
+ * The first track holds time signature, key signature, tempo and the song name; the second holds
+ * the notes. A PolyphonicSelection gets one note track per voice, each on its own channel, skipping
+ * the percussion channel. Each file is encoded into a byte buffer and written with a single channel
+ * write, and the buffer is reused across files when exporting many pieces at once.
+ */
+public class MIDIWorkshop {
+
+	private static final int TICKS_PER_QUARTER = 96;
+	private static final int TEMPO = 600000; // microseconds per quarter note
+	private static final int VELOCITY = 70;
+	private static final int NOTE_ON = 0x90; // on channel 1; the channel is added to the status byte
+	private static final int NOTE_OFF = 0x80;
+	private static final int META = 0xFF;
+	private static final int META_TRACK_NAME = 0x03;
+	private static final int META_END_OF_TRACK = 0x2F;
+	private static final int META_TEMPO = 0x51;
+	private static final int META_TIME_SIGNATURE = 0x58;
+	private static final int META_KEY_SIGNATURE = 0x59;
+	private static final int HOLD = 128;
+	private static final int PERCUSSION_CHANNEL = 9; // channel 10, drums in General MIDI
+	private static final int MAX_VOICES = 15; // all channels but percussion
+
+	// Outputs the MIDI form of the MusicSelection @source at the location @destination
+	public MIDIWorkshop(MusicSelection source, String songName, String destination) throws IOException {
+		write(source, songName, destination);
+	}
+
+	public static void write(MusicSelection source, String songName, String destination) throws IOException {
+		write(encode(source, songName, null), Paths.get(destination));
+	}
+
+	public static void write(PolyphonicSelection source, String songName, String destination) throws IOException {
+		write(encode(source, songName, null), Paths.get(destination));
+	}
+
+	/* Writes each piece of @pieces to @prefix followed by its index, e.g. elite0.mid, elite1.mid, ...
+	 * All files are encoded into the same buffer.
+	 */
+	public static void writeAll(List<MusicSelection> pieces, String songName, String prefix) throws IOException {
+		ByteBuffer buffer = null;
+		for (int i = 0; i < pieces.size(); i++) {
+			buffer = encode(pieces.get(i), songName, buffer);
+			write(buffer, Paths.get(prefix + i + ".mid"));
+		}
+	}
+
+	/* Encodes @source as a complete MIDI file into @buffer, or a new buffer if it is null or too small.
+	 * Returns the buffer, flipped for reading. A relative @source is decoded to pitches first.
+	 */
+	public static ByteBuffer encode(MusicSelection source, String songName, ByteBuffer buffer) {
+		MusicSelection abs = source.absolute();
+		buffer = beginFile(buffer, songName, 1, abs.length());
+		writeNoteTrack(buffer, "Piano", 0, abs.getChunkSize(), abs.length(), abs::getChunkAt);
+		buffer.flip();
+		return buffer;
+	}
+
+	// As encode(MusicSelection, ...), with a track named "Voice 1", "Voice 2", ... for each voice of @source
+	public static ByteBuffer encode(PolyphonicSelection source, String songName, ByteBuffer buffer) {
+		int voices = source.voices();
+		if (voices > MAX_VOICES)
+			throw new IllegalArgumentException("MIDI has " + MAX_VOICES + " melodic channels, score has " + voices + " voices");
+		buffer = beginFile(buffer, songName, voices, voices * source.length());
+		for (int v = 0; v < voices; v++) {
+			int voice = v;
+			int channel = v < PERCUSSION_CHANNEL ? v : v + 1;
+			writeNoteTrack(buffer, "Voice " + (v + 1), channel, source.getChunkSize(), source.length(),
+					i -> source.getChunkAt(voice, i));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/* Makes @buffer, or a new buffer if it is null or too small, hold the file header and tempo track of
+	 * a file with @noteTracks note tracks of @chunks chunks in total. Returns the buffer.
+	 */
+	private static ByteBuffer beginFile(ByteBuffer buffer, String songName, int noteTracks, int chunks) {
+		byte[] name = songName.getBytes(StandardCharsets.UTF_8);
+		// Upper bound: headers and meta events, plus two events of at most 7 bytes per chunk
+		int capacity = 128 + name.length + 32 * noteTracks + 16 * chunks;
+		if (buffer == null || buffer.capacity() < capacity)
+			buffer = ByteBuffer.allocate(capacity);
+		buffer.clear();
+
+		// Header chunk
+		buffer.put("MThd".getBytes(StandardCharsets.US_ASCII));
+		buffer.putInt(6);
+		buffer.putShort((short)1); // format 1
+		buffer.putShort((short)(1 + noteTracks)); // tracks
+		buffer.putShort((short)TICKS_PER_QUARTER);
+
+		// Tempo track
+		int start = beginTrack(buffer);
+		writeVariableLength(buffer, 0);
+		buffer.put(new byte[] {(byte)META, META_TIME_SIGNATURE, 4, 4, 2, 24, 8}); // 4/4
+		writeVariableLength(buffer, 0);
+		buffer.put(new byte[] {(byte)META, META_KEY_SIGNATURE, 2, 0, 0}); // C major
+		writeVariableLength(buffer, 0);
+		buffer.put(new byte[] {(byte)META, META_TEMPO, 3, (byte)(TEMPO >> 16), (byte)(TEMPO >> 8), (byte)TEMPO});
+		writeVariableLength(buffer, 0);
+		writeText(buffer, META_TRACK_NAME, name);
+		writeVariableLength(buffer, 1);
+		buffer.put(new byte[] {(byte)META, META_END_OF_TRACK, 0});
+		endTrack(buffer, start);
+		return buffer;
+	}
+
+	// Writes a track named @trackName with the @length chunks given by @chunkAt on @channel (0-15)
+	private static void writeNoteTrack(ByteBuffer buffer, String trackName, int channel, int chunkSize, int length,
+			IntUnaryOperator chunkAt) {
+		int start = beginTrack(buffer);
+		writeVariableLength(buffer, 0);
+		writeText(buffer, META_TRACK_NAME, trackName.getBytes(StandardCharsets.US_ASCII));
+		int count = unitsAt(1, chunkSize);
+		int last = 0;
+		int i = 0;
+		while (i < length) {
+			int curr = chunkAt.applyAsInt(i);
+			if (isNote(curr)) {
+				writeVariableLength(buffer, count - last);
+				buffer.put((byte)(NOTE_ON | channel)).put((byte)curr).put((byte)VELOCITY);
+				last = count;
+				do {
+					i++;
+					count = unitsAt(i+1, chunkSize);
+				}
+				while(i<length && chunkAt.applyAsInt(i)==HOLD);
+				writeVariableLength(buffer, count - last);
+				buffer.put((byte)(NOTE_OFF | channel)).put((byte)curr).put((byte)VELOCITY);
+				last = count;
+			}
+			else {
+				do {
+					i++;
+					count = unitsAt(i+1, chunkSize);
+				}
+				while(i<length && chunkAt.applyAsInt(i)==HOLD);
+			}
+		}
+		writeVariableLength(buffer, count + 1 - last);
+		buffer.put(new byte[] {(byte)META, META_END_OF_TRACK, 0});
+		endTrack(buffer, start);
+	}
+
+	/* Time of chunk boundary @boundary in midi units, 25 per 16th note. Every boundary is rounded on its
+	 * own rather than adding up a rounded chunk length, so chunk sizes that do not divide 400, such as
+	 * the 24 or 48 of equalized pieces, keep time.
+	 */
+	private static int unitsAt(int boundary, int chunkSize) {
+		return (int)Math.round(boundary * 400.0 / chunkSize);
+	}
+
+	// Writes the chunk header of a track with a placeholder length; returns where the length goes
+	private static int beginTrack(ByteBuffer buffer) {
+		buffer.put("MTrk".getBytes(StandardCharsets.US_ASCII));
+		int lengthPosition = buffer.position();
+		buffer.putInt(0);
+		return lengthPosition;
+	}
+
+	private static void endTrack(ByteBuffer buffer, int lengthPosition) {
+		buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+	}
+
+	private static void writeText(ByteBuffer buffer, int type, byte[] text) {
+		buffer.put((byte)META).put((byte)type);
+		writeVariableLength(buffer, text.length);
+		buffer.put(text);
+	}
+
+	// MIDI variable-length quantity: 7 bits per byte, most significant first, high bit set on all but the last
+	private static void writeVariableLength(ByteBuffer buffer, int value) {
+		int shift = 21;
+		while (shift > 0 && (value >>> shift) == 0)
+			shift -= 7;
+		for (; shift > 0; shift -= 7)
+			buffer.put((byte)(0x80 | ((value >>> shift) & 0x7F)));
+		buffer.put((byte)(value & 0x7F));
+	}
+
+	private static void write(ByteBuffer buffer, Path destination) throws IOException {
+		try (FileChannel channel = FileChannel.open(destination, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	public static boolean isNote(int n) {return (n>=0 && n<HOLD);}
+}
@@ -1,419 +1,983 @@
-import java.util.*;
-import java.io.*;
-
-/*
- * Separate absolute and relative representations (one at a time via flag)
- * Constraint on values of relative representation
- * Multiple sources without niching
- */
-
-class MusicGeneticAlgorithm {
-	// Variables
-	private ArrayList<MusicSelection> population;
-	private ArrayList<MusicSelection> origPieces;
-	private Random gen;
-	private int chunkSize;
-	private int POPULATION_SIZE;
-
-	// Constants
-	// Flag for method of calculating fitness for multiple pieces: 0 = average, 1 = min, 2 = max
-	private int FITNESS_CODE = 0; 
-	private boolean fitnessFlag = false; // Niching
-	private final int NUM_INDIVS_PER_ORIG = 50;
-//	private final double originalPieceMutationRate = 0.05;
-	private final int MUTATION_DISTANCE = 2; // 2 = mutation by whole step
-	private final double NUM_POINTS_OF_CROSSOVER = 2;
-	private final double PROBABILITY_OF_MUTATION = 0.05; // Probability of mutating each note
-	private final double CROSSOVER_RATE = 0.9;
-	private final double RANDOM_INITIALIZED = 0.5;
-	private final double INITIAL_MUTATION_RATE = 0.33;
-	private final int MAX_NOTE_VALUE = 129; // 0-127 for MIDI notes, 128 for hold, 129 for rest
-	private final int HOLD = 128;
-	private final int REST = 129;
-	private final int NUM_NOTES_PER_OCTAVE = 12;
-	private final double OPTIMAL_FITNESS = 0.95;
-
-	/* Constructor:
-	 * 1. Equalizes all original pieces such that chunk size is constant
-	 * 2. Generates initial population of individuals of two types: completely random and mutated variants of originals 
-	 */
-	public MusicGeneticAlgorithm(ArrayList<MusicSelection> pieces) {		
-		gen = new Random(123456);
-		origPieces = pieces;
-		POPULATION_SIZE = origPieces.size()*NUM_INDIVS_PER_ORIG;
-		population = new ArrayList<MusicSelection>(POPULATION_SIZE);
-		
-//		Equalizes all original pieces such that chunk size is constant
-		chunkSize = 0;
-		for (MusicSelection s : origPieces)
-			chunkSize = Math.max(chunkSize, s.getChunkSize());
-		for (MusicSelection s : origPieces) {
-			equalize(s, chunkSize);
-			// Mutates original pieces by a certain rate in order to maintain certain distance from original
-//			mutate(s, originalPieceMutationRate);
-		}
-
-//		Generates initial population of individuals of two types: completely random 
-//		and mutated variants of originals
-		int randomlyGenerated =  (int)(RANDOM_INITIALIZED * POPULATION_SIZE);
-		for (int i = 0; i < randomlyGenerated; i++)	{
-			population.add(new MusicSelection(getRandomIndividual(origPieces).length(), chunkSize));
-		}
-		for (int j = randomlyGenerated; j < POPULATION_SIZE; j++) {
-			MusicSelection mutatedCopy = new MusicSelection(getRandomIndividual(origPieces));
-//			System.out.println("Before mutating : "+pieces.get(index));
-			mutate(mutatedCopy, INITIAL_MUTATION_RATE);
-//			System.out.println("After mutating: "+pieces.get(index));
-//			System.out.println("Mutated" +toBeMutated);
-			population.add(mutatedCopy);
-		}
-
-	/*	int maxLength = 0;
-		for (MusicSelection x : origPiecesAbsolute)
-			maxLength = Math.max(maxLength, x.length());
-		MusicSelection s = new MusicSelection(maxLength, chunkSize);
-		for (int i = 0; i<maxLength; i++) {
-			int total = 0;
-			for (MusicSelection x : origPiecesAbsolute)
-				if (i < x.length())
-					total += x.getChunkAt(i);
-			s.setChunkAt(i, total/origPiecesAbsolute.size());
-		}
-		System.out.println("Fitness of centroid: "+fitness(s));*/
-	}
-
-	/*
-	 * Cosine similarity between two MusicSelections treated as vectors
-	 * Special properties:
-	 * 1. Hold operator is replaced with value of last note
-	 * 2. Notes differing by an octave are considered to be equal.
-	 */
-	public double similarity(MusicSelection s1, MusicSelection s2) {
-		double AdotB = 0;
-		double magA = 0;
-		double magB = 0;
-		int minLength = Math.min(s1.length(), s2.length());
-		int lastNoteA = REST;
-		int lastNoteB = REST;
-		for (int i = 0; i < minLength; i++) {
-			int currA = s1.getChunkAt(i);
-			int currB = s2.getChunkAt(i);
-			if (isNote(currA))
-				lastNoteA = currA % NUM_NOTES_PER_OCTAVE;
-			if (isNote(currB))
-				lastNoteB = currB % NUM_NOTES_PER_OCTAVE;
-
-			AdotB += lastNoteA * lastNoteB;
-			magA += Math.pow(lastNoteA, 2);
-			magB += Math.pow(lastNoteB, 2);
-		}
-		return AdotB / Math.sqrt(magA*magB);
-	}
-
-	/* Cosine similarity among original pieces. 
-	 * Fitness code corresponds to different procedure of determining overall fitness.
-	 * FITNESS_CODE = 0: Average
-	 * FITNESS_CODE = 1: Minimum
-	 * FITNESS_CODE = 2: Maximum
-	 */
-	public double fitnessOrig(MusicSelection transposed) {
-		ArrayList<Double> fitnesses = new ArrayList<Double>(origPieces.size());
-		int tLength = transposed.length();
-		
-		for (MusicSelection orig : origPieces) {
-			MusicSelection test = new MusicSelection(transposed);
-			int firstOrig = 0;
-			while (orig.getChunkAt(firstOrig) == REST || orig.getChunkAt(firstOrig) == HOLD)
-				firstOrig++;
-			int firstTest = 0;
-			while (orig.getChunkAt(firstTest) == REST || orig.getChunkAt(firstTest) == HOLD)
-				firstTest++;
-			int difference = orig.getChunkAt(firstOrig)-test.getChunkAt(firstTest);
-			for (int i = firstTest; i < tLength; i++) {
-				int currChunk = test.getChunkAt(i);
-				if (currChunk != HOLD && currChunk != REST)
-					test.setChunkAt(i, currChunk-difference);
-			}
-			fitnesses.add(similarity(orig, test));
-		}
-
-		if (FITNESS_CODE == 0) { // average
-			double total = 0;
-			for (double x : fitnesses)
-				total += x;
-			return total / fitnesses.size();
-		}
-		else if (FITNESS_CODE == 1) // min
-			return Collections.min(fitnesses);
-		else // max
-			return Collections.max(fitnesses);
-	}
-
-	// Returns shared fitness
-	public double fitness(MusicSelection s) {
-		if (fitnessFlag) {
-			double totalShared = 0;
-			for (MusicSelection x : population)
-				totalShared += similarity(s,x);
-			return (1 - Math.abs(fitnessOrig(s) - OPTIMAL_FITNESS))/totalShared;
-		}
-		return 1 - Math.abs(fitnessOrig(s) - OPTIMAL_FITNESS);
-	}
-
-	// Randomly generates bitmask with fixed number of points of crossover
-	public int[] makeBitmask(MusicSelection s1, MusicSelection s2) {
-		int l1 = s1.length();
-		int l2 = s2.length();
-		int minLength = Math.min(l1, l2);
-		int maxLength = Math.max(l1, l2);
-
-		int[] bitmask = new int[maxLength];
-		int loc;
-		// Labels distinct points of crossover with 1's in an array initially consisting of all 0's
-		for (int i = 0; i < NUM_POINTS_OF_CROSSOVER; i++) {
-			do loc = gen.nextInt(minLength); while (bitmask[loc] == 1);
-			bitmask[loc] = 1;
-		}
-
-		// Fills in gaps between 1's
-		boolean change = false;
-		for (int i = 0; i<minLength; i++) {
-			if (!change && bitmask[i]==1) // Prev = 0, curr = 1
-				change = true;
-			else if (change && bitmask[i]==1) // Prev = 1, curr = 1
-				change = false;
-			else if (change) // Prev = 1, curr = 0
-				bitmask[i] = 1;
-		}
-		// If second gene longer, fills rest of bitmask with 1's
-		if (l2 > l1)
-			Arrays.fill(bitmask, minLength, maxLength, 1);
-		return bitmask;
-	}
-
-	/* Crosses over two individuals using random bitmask generated by makeBitmask().
-	 * Returns the offspring from the crossover.
-	 */
-	public ArrayList<MusicSelection> crossover(MusicSelection s1, MusicSelection s2){
-		int[] bitmask = makeBitmask(s1, s2);
-		int bLength = bitmask.length;
-		//		System.out.println("Bitmask being used:");
-		//		System.out.println(Arrays.toString(bitmask));
-		
-		// Templates for offspring 
-		ArrayList<Integer> new1 = new ArrayList<Integer>();
-		ArrayList<Integer> new2 = new ArrayList<Integer>();
-
-		int crossoverStopIndex = Math.min(s1.length(), s2.length());
-		
-		// Values in bitmask determine assignment to offspring 
-		for (int i = 0; i < crossoverStopIndex; i++) {
-			if (bitmask[i] == 0) {
-				new1.add(s1.getChunkAt(i));
-				new2.add(s2.getChunkAt(i));
-			}
-			else {
-				new1.add(s2.getChunkAt(i));
-				new2.add(s1.getChunkAt(i));
-			}
-		}
-		
-		// Appends rest of longer parent to first offspring
-		if (bitmask[bLength-1] == 0)
-			for (int j = crossoverStopIndex; j < bLength; j++)
-				new1.add(s1.getChunkAt(j));
-		else
-			for (int j = crossoverStopIndex; j < bLength; j++)
-				new1.add(s2.getChunkAt(j));
-
-		ArrayList<MusicSelection> children = new ArrayList<MusicSelection>(2);
-		children.add(new MusicSelection(new1, chunkSize));
-		children.add(new MusicSelection(new2, chunkSize));
-		return children;
-	}
-
-	/* Randomly mutates each chunk with a certain probability.
-	 * If the chunk is a note, it is mutated up or down with equal probability.
-	 * If the chunk is a rest/hold, it is mutated to a hold/rest or a note with equal probability.
-	 * If the mutation results in an invalid value for the chunk, it is reset to a random valid value.
-	 */
-	public void mutate(MusicSelection s, double prob) {
-		int sLength = s.length();
-		for (int i = 0; i < sLength; i++) {
-			int currChunk = s.getChunkAt(i);
-			if (isNote(currChunk) && gen.nextDouble() < prob) { // chunk is a note
-				mutateFromNote(s, i);
-			}
-			else if (gen.nextDouble() < prob) { // Chunk is a hold or rest
-				if (gen.nextDouble() > 0.5) { // mutate to rest/hold
-					// If hold mutated to rest, and next location is a hold,
-					// next location is changed to the last note value to prevent excessive
-					// loss of music
-					if (currChunk == HOLD) {
-						if (s.getChunkAt(i+1) == HOLD)
-							s.setChunkAt(i+1, s.lastNote(i));
-						s.setChunkAt(i, REST);
-					}
-					// If rest mutated to hold, and next location is a hold,
-					// next location is changed to a rest to prevent excessive adding of music
-					if (currChunk == REST && i > 0) {
-						if (s.getChunkAt(i+1) == HOLD)
-							s.setChunkAt(i+1, REST);
-						s.setChunkAt(i, HOLD);
-					}
-				}
-				else if (i > 0) // mutate to note if piece does not start with rest
-					mutateFromNote(s, i);
-			}
-		}
-	}
-
-	public void mutateFromNote(MusicSelection s, int position) {
-		int lastNote = s.lastNote(position);
-		int updated = -1;
-		if (gen.nextDouble() > 0.5) 
-			updated = lastNote+1+gen.nextInt(MUTATION_DISTANCE);
-		else 
-			updated = lastNote-1-gen.nextInt(MUTATION_DISTANCE);
-		if (updated < 0 || updated > MAX_NOTE_VALUE)
-			updated = gen.nextInt(MAX_NOTE_VALUE-1);
-		s.setChunkAt(position, updated);
-	}
-
-	//ATTENTION: Start reviewing from here
-	// Returns piece with the highest fitness
-	public MusicSelection getBestPiece() {
-		MusicSelection best = population.get(0);
-		for (int i = 1; i < population.size(); i++)
-			best = better(best, population.get(i));
-		return best;
-	}
-
-	/* Generates a new generation of individuals each step for a number of steps.
-	 * Incorporates elitism, carrying the 2 fittest individuals from one generation to the next.
-	 * Also uses tournament selection, selecting two random individuals twice and choosing the fitter ones as parents for crossover.
-	 * After crossing over, mutates the offspring and adds to the next generation.
-	 */
-	public void runAlgorithm(int numSteps) throws IOException {
-		for (int i = 0; i < numSteps; i++) {
-			// Print population info to files
-			/*if (i % 10 == 0) {
-				printPopulationInfo(i);
-			}*/
-			
-			ArrayList<MusicSelection> newPopulation = new ArrayList<MusicSelection>(POPULATION_SIZE);
-
-			// Elitism: adds 2 fittest individuals immediately to next generation
-			MusicSelection best = getBestPiece();
-			newPopulation.add(best);
-			population.remove(best);
-			newPopulation.add(getBestPiece());
-			population.add(best);
-
-			// Tournament selection
-			for (int j = 2; j<POPULATION_SIZE; j+=2) {
-				MusicSelection s1 = new MusicSelection(better(getRandomIndividual(population),getRandomIndividual(population)));
-				MusicSelection s2 = new MusicSelection(better(getRandomIndividual(population),getRandomIndividual(population)));
-				if (gen.nextDouble() < CROSSOVER_RATE) {
-					ArrayList<MusicSelection> afterCrossover = crossover(s1, s2);
-					s1 = afterCrossover.get(0);
-					s2 = afterCrossover.get(1);
-				}
-				mutate(s1, PROBABILITY_OF_MUTATION);
-				mutate(s2, PROBABILITY_OF_MUTATION);
-				s1.check();
-				s2.check();
-				newPopulation.add(s1);
-				newPopulation.add(s2);
-			}
-			population = new ArrayList<MusicSelection>(newPopulation);
-		}
-//		printInfo();
-//		printPopulationInfo(numSteps);
-	}
-
-	/* Inserts holds after every note in a piece such that desired chunk size is achieved. 
-	 * It is assumed that the desired chunk size is smaller (i.e., the actual number is larger) than the original chunk size.
-	 * Thus, holds are added; notes are not removed.
-	 */
-	public void equalize(MusicSelection s, int targetChunkSize) {
-		int ratio = targetChunkSize / s.getChunkSize() ;
-		for (int i = 0; i < s.length(); i++)
-			for (int j = 0; j<ratio-1; j++) // add ratio-1 holds per note (1 note in shorter = ratio notes in longer)
-				s.addHold(i*ratio+1);
-		s.setChunkSize(targetChunkSize);
-	}
-
-
-	// Returns the selection with higher fitness
-	public MusicSelection better(MusicSelection s1, MusicSelection s2) {
-		if (fitness(s1) >= fitness(s2))
-			return s1;
-		return s2;
-	}
-
-	// Prints the contents and fitness of each individual in the population
-	public void printInfo() {
-		for (MusicSelection x : population) {
-			System.out.println(x);
-			System.out.println(fitnessOrig(x)+", "+fitness(x));
-		}
-	}
-
-	public boolean isNote(int n) {return (n>=0 && n<HOLD);}
-
-	public MusicSelection getRandomIndividual(ArrayList<MusicSelection> a) {
-		return a.get(gen.nextInt(a.size()));
-	}
-
-	// converts to note representation
-	public String toNotes(MusicSelection s) {
-		String translation = "";
-		for (int i = 0; i < s.length(); i++) {
-			int currChunk = s.getChunkAt(i);
-//			translation += currChunk + " ";
-			if (currChunk == HOLD)
-				translation += "h, ";
-			else if (currChunk == REST)
-				translation += "r, ";
-			else {
-				int mod = currChunk % NUM_NOTES_PER_OCTAVE;
-				switch (mod) {
-				case 0: translation += "c"; break;
-				case 1: translation += "c#"; break;
-				case 2: translation += "d"; break;
-				case 3: translation += "d#"; break;
-				case 4: translation += "e"; break;
-				case 5: translation += "f"; break;
-				case 6: translation += "f#"; break;
-				case 7: translation += "g"; break;
-				case 8: translation += "g#"; break;
-				case 9: translation += "a"; break;
-				case 10: translation += "a#"; break;
-				case 11: translation += "b"; break;
-				}
-				translation += (currChunk-mod)/12;
-				translation +=", ";
-			}
-		}
-		return translation;
-	}
-
-	public void printPopulationInfo(int n) throws IOException {
-		int maxLength = 0;
-		for (MusicSelection s : population)
-			maxLength = Math.max(maxLength, s.length());
-		PrintWriter out = new PrintWriter(new FileWriter("population"+n+".txt"));
-		for (int j = 0; j < maxLength; j++) {
-			out.printf("%d ", j);
-			for (MusicSelection s : population) {
-				if (s.length() > j)
-					out.printf("%3d ", s.getChunkAt(j));
-				else
-					out.printf("%3d ", 0);
-			}
-			out.println();
-		}
-		out.close();
-	}
-}
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.management.ManagementFactory;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+import java.io.*;
+
+/*
+ * Multiple sources without niching
+ */
+
+class MusicGeneticAlgorithm {
+	// Variables
+	private ArrayList<MusicSelection> population;
+	private ArrayList<MusicSelection> spare = new ArrayList<MusicSelection>(); // individuals the next generation is bred into
+	private long[] pairSeeds = new long[0];
+	// Per-thread crossover bitmask, grown as needed
+	private ThreadLocal<int[][]> bitmaskScratch = ThreadLocal.withInitial(() -> new int[1][0]);
+	private List<MusicSelection> origPieces; // equalized, shared with other instances through originals
+	private OriginalSet originals;
+	private GAConfig config;
+	private PitchProfile[] origProfiles; // hold-resolved pitch classes of the equalized original pieces
+	private Random gen;
+	private int chunkSize;
+	private int POPULATION_SIZE;
+	private FitnessCache cache;
+	private AtomicLong evaluations = new AtomicLong(); // number of full fitnessOrig() computations
+	private ForkJoinPool pool; // null = sequential generations
+
+	// Constants
+	// Flag for method of calculating fitness for multiple pieces: 0 = average, 1 = min, 2 = max
+	private int FITNESS_CODE; 
+	private boolean fitnessFlag = false; // Niching
+	private NicheIndex niches;
+	private ArrayList<MusicSelection> eliteHistory; // best individual of each generation, null if not recorded
+	private int generation; // generations run so far
+	private double mutationRate; // probability of mutating each note, adapted if adaptive is set
+	private int basePopulationSize;
+	private boolean adaptive = false; // Adapt mutation rate and population size to diversity
+	private FitnessFunction fitnessFunction; // null = the built-in pitch-class similarity
+	private CorpusIndex index; // prunes the comparisons with the originals, null = compare with each
+	private Accompaniment accompaniment; // other voices of a polyphonic piece, null if none
+	private double accompanimentWeight; // share of fitness given to consonance with the accompaniment
+
+	// Instrumentation: per-generation phase times, summed over threads
+	private ArrayList<GenerationListener> listeners = new ArrayList<GenerationListener>();
+	private LongAdder scoringNanos = new LongAdder();
+	private LongAdder selectionNanos = new LongAdder();
+	private LongAdder crossoverNanos = new LongAdder();
+	private LongAdder mutationNanos = new LongAdder();
+	// Allocation is counted per thread: the one running step(), plus what pool tasks allocate for it
+	private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+	private LongAdder workerAllocated = new LongAdder();
+	private volatile Thread stepThread;
+	// Set from the GAConfig; see there for the defaults
+	private int NUM_INDIVS_PER_ORIG;
+//	private final double originalPieceMutationRate = 0.05;
+	private int MUTATION_DISTANCE; // 2 = mutation by whole step
+	private final double NUM_POINTS_OF_CROSSOVER = 2;
+	private double PROBABILITY_OF_MUTATION; // Initial probability of mutating each note
+	private double CROSSOVER_RATE;
+	private double RANDOM_INITIALIZED;
+	private double OPTIMAL_FITNESS;
+	private boolean relative; // individuals hold intervals instead of pitches (see MusicSelection)
+	private final double INITIAL_MUTATION_RATE = 0.33;
+	private final int MAX_NOTE_VALUE = 129; // 0-127 for MIDI notes, 128 for hold, 129 for rest
+	private final int HOLD = 128;
+	private final int REST = 129;
+	private final int NUM_NOTES_PER_OCTAVE = 12;
+	private final int FITNESS_CACHE_CAPACITY = 10000;
+	private final double NICHE_RADIUS = 0.05; // cosine distance within which fitness is shared
+	private final double DIVERSITY_THRESHOLD = 0.005; // fitness standard deviation below which diversity has collapsed
+	private final double MAX_MUTATION_RATE = 0.3;
+	private final int MAX_POPULATION_GROWTH = 2; // adaptive population is at most this multiple of the base size
+
+	/* Constructor:
+	 * 1. Equalizes copies of all original pieces such that chunk size is constant (see OriginalSet)
+	 * 2. Generates initial population of individuals of two types: completely random and mutated variants of originals 
+	 */
+	public MusicGeneticAlgorithm(ArrayList<MusicSelection> pieces) {
+		this(pieces, 123456);
+	}
+
+	public MusicGeneticAlgorithm(ArrayList<MusicSelection> pieces, long seed) {
+		this(new OriginalSet(pieces), new GAConfig(), seed);
+	}
+
+	// Runs on @originals, which may be shared with other instances, with the parameters in @config
+	public MusicGeneticAlgorithm(OriginalSet originals, GAConfig config, long seed) {
+		this.originals = originals;
+		this.config = new GAConfig(config);
+		FITNESS_CODE = config.getFitnessCode();
+		NUM_INDIVS_PER_ORIG = config.getIndividualsPerOriginal();
+		MUTATION_DISTANCE = config.getMutationDistance();
+		PROBABILITY_OF_MUTATION = config.getMutationRate();
+		CROSSOVER_RATE = config.getCrossoverRate();
+		RANDOM_INITIALIZED = config.getRandomInitialized();
+		OPTIMAL_FITNESS = config.getOptimalFitness();
+		relative = config.isRelative();
+		gen = new Random(seed);
+		origPieces = originals.getPieces();
+		chunkSize = originals.getChunkSize();
+		origProfiles = originals.getProfiles();
+		POPULATION_SIZE = origPieces.size()*NUM_INDIVS_PER_ORIG;
+		basePopulationSize = POPULATION_SIZE;
+		mutationRate = PROBABILITY_OF_MUTATION;
+		population = new ArrayList<MusicSelection>(POPULATION_SIZE);
+		cache = new FitnessCache(FITNESS_CACHE_CAPACITY);
+
+//		Generates initial population of individuals of two types: completely random 
+//		and mutated variants of originals
+		int randomlyGenerated =  (int)(RANDOM_INITIALIZED * POPULATION_SIZE);
+		// Relative random walks follow the seed; absolute random individuals keep their fixed stream
+		for (int i = 0; i < randomlyGenerated; i++)	{
+			int length = getRandomIndividual(origPieces).length();
+			population.add(relative ? new MusicSelection(length, chunkSize, true, gen) : new MusicSelection(length, chunkSize));
+		}
+		for (int j = randomlyGenerated; j < POPULATION_SIZE; j++) {
+//			System.out.println("Before mutating : "+pieces.get(index));
+			population.add(mutatedOriginal());
+//			System.out.println("After mutating: "+pieces.get(index));
+//			System.out.println("Mutated" +toBeMutated);
+		}
+	}
+
+	/*
+	 * Cosine similarity between two MusicSelections treated as vectors
+	 * Special properties:
+	 * 1. Hold operator is replaced with value of last note
+	 * 2. Notes differing by an octave are considered to be equal.
+	 * Relative selections are compared by their pitches.
+	 */
+	public double similarity(MusicSelection s1, MusicSelection s2) {
+		s1 = s1.absolute();
+		s2 = s2.absolute();
+		double AdotB = 0;
+		double magA = 0;
+		double magB = 0;
+		int minLength = Math.min(s1.length(), s2.length());
+		int lastNoteA = REST;
+		int lastNoteB = REST;
+		for (int i = 0; i < minLength; i++) {
+			int currA = s1.getChunkAt(i);
+			int currB = s2.getChunkAt(i);
+			if (isNote(currA))
+				lastNoteA = currA % NUM_NOTES_PER_OCTAVE;
+			if (isNote(currB))
+				lastNoteB = currB % NUM_NOTES_PER_OCTAVE;
+
+			AdotB += lastNoteA * lastNoteB;
+			magA += Math.pow(lastNoteA, 2);
+			magB += Math.pow(lastNoteB, 2);
+		}
+		return AdotB / Math.sqrt(magA*magB);
+	}
+
+	/* Cosine similarity among original pieces, memoized.
+	 * The value is stored with the individual until its chunks change, and in a content-addressed
+	 * cache so that identical genomes in different individuals are only scored once.
+	 */
+	public double fitnessOrig(MusicSelection s) {
+		if (s.hasFitness())
+			return s.getFitness();
+		Double cached = cache.get(s);
+		if (cached == null) {
+			long start = System.nanoTime();
+			cached = computeFitnessOrig(s);
+			scoringNanos.add(System.nanoTime() - start);
+			evaluations.incrementAndGet();
+			cache.put(s, cached);
+		}
+		s.setFitness(cached);
+		return cached;
+	}
+
+	/* Cosine similarity among original pieces, or the similarities of the fitness function if one is set.
+	 * The candidate is transposed so that its first note matches the first note of each original,
+	 * and compared against the precomputed profile of that original.
+	 * Individuals derived from an already scored one are rescored incrementally (see ScoreState).
+	 * Relative individuals are scored through their decoded form, which they keep up to date, so they
+	 * are rescored incrementally too.
+	 * Fitness code corresponds to different procedure of determining overall fitness.
+	 * FITNESS_CODE = 0: Average
+	 * FITNESS_CODE = 1: Minimum
+	 * FITNESS_CODE = 2: Maximum
+	 */
+	private double computeFitnessOrig(MusicSelection s) {
+		MusicSelection scored = s.decoded();
+		if (index != null && fitnessFunction == null) {
+			PitchProfile candidate = SimilarityKernel.get().profile(scored);
+			if (FITNESS_CODE == 0)
+				return index.average(candidate);
+			else if (FITNESS_CODE == 1)
+				return index.min(candidate);
+			else
+				return index.max(candidate);
+		}
+		double[] similarities = SimilarityKernel.get().results(origProfiles.length);
+		ScoreState state = scored.getScoreState();
+		if (fitnessFunction != null)
+			fitnessFunction.similarities(scored, similarities);
+		else if (state == null)
+			scored.setScoreState(ScoreState.compute(scored, origProfiles, similarities));
+		else if (!state.update(scored, origProfiles, similarities))
+			state.recompute(scored, origProfiles, similarities);
+		return combine(similarities, origProfiles.length, FITNESS_CODE);
+	}
+
+	// The first @n @similarities combined as fitness code @code says
+	private static double combine(double[] similarities, int n, int code) {
+		double total = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < n; j++) {
+			double f = similarities[j];
+			total += f;
+			min = Math.min(min, f);
+			max = Math.max(max, f);
+		}
+
+		if (code == 0) // average
+			return total / n;
+		else if (code == 1) // min
+			return min;
+		else // max
+			return max;
+	}
+
+	/* Fitness an algorithm on @originals with @config gives @s, with the built-in similarity and
+	 * without niching or accompaniment. Needs no population, so individuals from elsewhere (e.g. the
+	 * bests of several islands) can be compared cheaply.
+	 */
+	public static double fitness(OriginalSet originals, GAConfig config, MusicSelection s) {
+		PitchProfile[] profiles = originals.getProfiles();
+		SimilarityKernel kernel = SimilarityKernel.get();
+		PitchProfile candidate = kernel.profile(s.absolute());
+		double[] similarities = kernel.results(profiles.length);
+		if (SimilarityKernel.ENABLED)
+			kernel.score(candidate, profiles, similarities);
+		else
+			for (int j = 0; j < profiles.length; j++)
+				similarities[j] = profiles[j].similarity(candidate);
+		return 1 - Math.abs(combine(similarities, profiles.length, config.getFitnessCode()) - config.getOptimalFitness());
+	}
+
+	/* Returns shared fitness; niche counts are refreshed once per generation by updateNiches().
+	 * With an accompaniment, fitness blends in the consonance with it (see setAccompaniment).
+	 */
+	public double fitness(MusicSelection s) {
+		double f = 1 - Math.abs(fitnessOrig(s) - OPTIMAL_FITNESS);
+		if (accompaniment != null)
+			f = (1 - accompanimentWeight) * f + accompanimentWeight * crossVoice(s);
+		if (fitnessFlag)
+			return f/s.getNicheCount();
+		return f;
+	}
+
+	// Consonance of @s with the accompaniment, memoized with the individual
+	private double crossVoice(MusicSelection s) {
+		if (!s.hasCrossVoice())
+			s.setCrossVoice(accompaniment.consonance(s.decoded()));
+		return s.getCrossVoice();
+	}
+
+	/* Scores similarity to the originals with @f instead of the built-in pitch-class similarity
+	 * (null = built-in again). @f is prepared for the originals here. Fitness values computed before,
+	 * including those in the fitness cache, are discarded.
+	 */
+	public void setFitnessFunction(FitnessFunction f) {
+		if (f != null)
+			f.prepare(originals);
+		fitnessFunction = f;
+		discardFitness();
+	}
+
+	/* Compares candidates with the originals through the CorpusIndex of the originals instead of one
+	 * by one, for large sets of originals. Minimum and maximum are unchanged by this, the average only
+	 * up to rounding. Has no effect while a fitness function is set.
+	 */
+	public void setIndexed(boolean on) {
+		index = on ? originals.getIndex() : null;
+		discardFitness();
+	}
+
+	// Forgets all fitness values, for when the way they are computed changes
+	private void discardFitness() {
+		cache.clear();
+		for (MusicSelection x : population) {
+			x.invalidateFitness();
+			x.clearScoreState();
+		}
+		for (MusicSelection x : spare) {
+			x.invalidateFitness();
+			x.clearScoreState();
+		}
+	}
+
+	/* Evolves this population as one voice of a polyphonic piece, accompanied by the voices of @a
+	 * (null = none). @weight of fitness goes to consonance with @a, the rest to the originals.
+	 * Consonances computed against an earlier accompaniment are discarded.
+	 */
+	public void setAccompaniment(Accompaniment a, double weight) {
+		if (weight < 0 || weight > 1)
+			throw new IllegalArgumentException("Accompaniment weight must be between 0 and 1: " + weight);
+		accompaniment = a;
+		accompanimentWeight = weight;
+		for (MusicSelection x : population)
+			x.invalidateCrossVoice();
+		for (MusicSelection x : spare)
+			x.invalidateCrossVoice();
+	}
+
+	// Turns niching on or off; individuals within @radius cosine distance share fitness
+	public void setNiching(boolean on, double radius) {
+		fitnessFlag = on;
+		niches = on ? new NicheIndex(radius, 123456) : null;
+		if (on)
+			updateNiches();
+	}
+
+	public boolean isNiching() {return fitnessFlag;}
+
+	// Recomputes the niche count of every individual in the population
+	public void updateNiches() {
+		if (niches == null)
+			niches = new NicheIndex(NICHE_RADIUS, 123456);
+		double[] counts = niches.nicheCounts(population);
+		for (int i = 0; i < counts.length; i++)
+			population.get(i).setNicheCount(counts[i]);
+	}
+
+	// Randomly generates bitmask with fixed number of points of crossover
+	public int[] makeBitmask(MusicSelection s1, MusicSelection s2) {
+		return makeBitmask(s1, s2, gen);
+	}
+
+	public int[] makeBitmask(MusicSelection s1, MusicSelection s2, RandomGenerator rng) {
+		int[] bitmask = new int[Math.max(s1.length(), s2.length())];
+		fillBitmask(s1, s2, rng, bitmask);
+		return bitmask;
+	}
+
+	// makeBitmask() into the first max(length) entries of @bitmask
+	private void fillBitmask(MusicSelection s1, MusicSelection s2, RandomGenerator rng, int[] bitmask) {
+		int l1 = s1.length();
+		int l2 = s2.length();
+		int minLength = Math.min(l1, l2);
+		int maxLength = Math.max(l1, l2);
+
+		Arrays.fill(bitmask, 0, maxLength, 0);
+		int loc;
+		// Labels distinct points of crossover with 1's in an array initially consisting of all 0's
+		for (int i = 0; i < NUM_POINTS_OF_CROSSOVER; i++) {
+			do loc = rng.nextInt(minLength); while (bitmask[loc] == 1);
+			bitmask[loc] = 1;
+		}
+
+		// Fills in gaps between 1's
+		boolean change = false;
+		for (int i = 0; i<minLength; i++) {
+			if (!change && bitmask[i]==1) // Prev = 0, curr = 1
+				change = true;
+			else if (change && bitmask[i]==1) // Prev = 1, curr = 1
+				change = false;
+			else if (change) // Prev = 1, curr = 0
+				bitmask[i] = 1;
+		}
+		// If second gene longer, fills rest of bitmask with 1's
+		if (l2 > l1)
+			Arrays.fill(bitmask, minLength, maxLength, 1);
+	}
+
+	/* Crosses over two individuals using random bitmask generated by makeBitmask().
+	 * Returns the offspring from the crossover.
+	 */
+	public ArrayList<MusicSelection> crossover(MusicSelection s1, MusicSelection s2){
+		return crossover(s1, s2, gen);
+	}
+
+	public ArrayList<MusicSelection> crossover(MusicSelection s1, MusicSelection s2, RandomGenerator rng){
+		MusicSelection new1 = new MusicSelection(s1);
+		MusicSelection new2 = new MusicSelection(s2);
+		crossoverInto(s1, s2, new1, new2, rng);
+		ArrayList<MusicSelection> children = new ArrayList<MusicSelection>(2);
+		children.add(new1);
+		children.add(new2);
+		return children;
+	}
+
+	/* crossover() writing the offspring into @new1 and @new2, which must be distinct from the parents.
+	 * The offspring arrays and the per-thread bitmask are reused, so this does not allocate once they are large enough.
+	 */
+	public void crossoverInto(MusicSelection s1, MusicSelection s2, MusicSelection new1, MusicSelection new2, RandomGenerator rng) {
+		int bLength = Math.max(s1.length(), s2.length());
+		int[][] scratch = bitmaskScratch.get();
+		if (scratch[0].length < bLength)
+			scratch[0] = new int[Math.max(bLength, scratch[0].length * 2)];
+		int[] bitmask = scratch[0];
+		fillBitmask(s1, s2, rng, bitmask);
+		//		System.out.println("Bitmask being used:");
+		//		System.out.println(Arrays.toString(bitmask));
+		
+		// Offspring start as copies of their parents, so they can be rescored from the parents'
+		// similarity terms by revisiting only the swapped ranges
+		int crossoverStopIndex = Math.min(s1.length(), s2.length());
+		if (new1 != s1)
+			new1.copyFrom(s1);
+		if (new2 != s2)
+			new2.copyFrom(s2);
+		new1.resize(bLength);
+		new2.resize(crossoverStopIndex);
+
+		// Runs of 1's in the bitmask are swapped between the offspring
+		int runStart = 0;
+		while (runStart < crossoverStopIndex) {
+			if (bitmask[runStart] == 0) {
+				runStart++;
+				continue;
+			}
+			int runEnd = runStart;
+			while (runEnd < crossoverStopIndex && bitmask[runEnd] == 1)
+				runEnd++;
+			new1.copyRange(s2, runStart, runEnd);
+			new2.copyRange(s1, runStart, runEnd);
+			runStart = runEnd;
+		}
+		
+		// Appends rest of longer parent to first offspring
+		if (bitmask[bLength-1] == 1 && bLength > crossoverStopIndex)
+			new1.copyRange(s2, crossoverStopIndex, bLength);
+	}
+
+	/* Randomly mutates each chunk with a certain probability.
+	 * If the chunk is a note, it is mutated up or down with equal probability.
+	 * In relative individuals the same changes are made to intervals (see mutateFromNote).
+	 * If the chunk is a rest/hold, it is mutated to a hold/rest or a note with equal probability.
+	 * If the mutation results in an invalid value for the chunk, it is reset to a random valid value.
+	 */
+	public void mutate(MusicSelection s, double prob) {
+		mutate(s, prob, gen);
+	}
+
+	public void mutate(MusicSelection s, double prob, RandomGenerator rng) {
+		int sLength = s.length();
+		for (int i = 0; i < sLength; i++) {
+			int currChunk = s.getChunkAt(i);
+			if (s.isNoteAt(i) && rng.nextDouble() < prob) { // chunk is a note
+				mutateFromNote(s, i, rng);
+			}
+			else if (rng.nextDouble() < prob) { // Chunk is a hold or rest
+				if (rng.nextDouble() > 0.5) { // mutate to rest/hold
+					// If hold mutated to rest, and next location is a hold,
+					// next location is changed to the last note value to prevent excessive
+					// loss of music
+					if (currChunk == HOLD) {
+						if (i+1 < sLength && s.getChunkAt(i+1) == HOLD)
+							s.setChunkAt(i+1, s.isRelative() ? (s.hasNoteBefore(i) ? 0 : REST) : s.lastNote(i)); // relative: unison
+						s.setChunkAt(i, REST);
+					}
+					// If rest mutated to hold, and next location is a hold,
+					// next location is changed to a rest to prevent excessive adding of music
+					if (currChunk == REST && i > 0) {
+						if (i+1 < sLength && s.getChunkAt(i+1) == HOLD)
+							s.setChunkAt(i+1, REST);
+						s.setChunkAt(i, HOLD);
+					}
+				}
+				else if (i > 0) // mutate to note if piece does not start with rest
+					mutateFromNote(s, i, rng);
+			}
+		}
+	}
+
+	public void mutateFromNote(MusicSelection s, int position) {
+		mutateFromNote(s, position, gen);
+	}
+
+	/* Sets @position to a note a step of up to MUTATION_DISTANCE above or below the previous note.
+	 * In a relative individual that step is the new interval, and the first note gets a random pitch;
+	 * the next note keeps its pitch (see MusicSelection.setChunkAt), and check() keeps it in range.
+	 */
+	public void mutateFromNote(MusicSelection s, int position, RandomGenerator rng) {
+		if (s.isRelative()) {
+			int step = 1+rng.nextInt(MUTATION_DISTANCE);
+			if (!s.hasNoteBefore(position))
+				s.setChunkAt(position, rng.nextInt(MAX_NOTE_VALUE-1));
+			else
+				s.setChunkAt(position, rng.nextDouble() > 0.5 ? step : -step);
+			return;
+		}
+		int lastNote = s.lastNote(position);
+		int updated = -1;
+		if (rng.nextDouble() > 0.5) 
+			updated = lastNote+1+rng.nextInt(MUTATION_DISTANCE);
+		else 
+			updated = lastNote-1-rng.nextInt(MUTATION_DISTANCE);
+		if (updated < 0 || updated > MAX_NOTE_VALUE)
+			updated = rng.nextInt(MAX_NOTE_VALUE-1);
+		s.setChunkAt(position, updated);
+	}
+
+	//ATTENTION: Start reviewing from here
+	// Returns piece with the highest fitness
+	public MusicSelection getBestPiece() {
+		MusicSelection best = population.get(0);
+		for (int i = 1; i < population.size(); i++)
+			best = better(best, population.get(i));
+		return best;
+	}
+
+	/* Generates a new generation of individuals each step for a number of steps.
+	 * Incorporates elitism, carrying the 2 fittest individuals from one generation to the next.
+	 * Also uses tournament selection, selecting two random individuals twice and choosing the fitter ones as parents for crossover.
+	 * After crossing over, mutates the offspring and adds to the next generation.
+	 * If a pool has been set, the population is scored and bred in parallel (see breedInParallel).
+	 */
+	public void runAlgorithm(int numSteps) throws IOException {
+		for (int i = 0; i < numSteps; i++) {
+			// Print population info to files
+			/*if (i % 10 == 0) {
+				printPopulationInfo(i);
+			}*/
+			step();
+		}
+		if (fitnessFlag)
+			updateNiches();
+//		printInfo();
+//		printPopulationInfo(numSteps);
+	}
+
+	/* Runs generations until @stop says to stop after one of them, e.g.
+	 * runAlgorithm(StoppingCriterion.anyOf(StoppingCriterion.maxGenerations(500), StoppingCriterion.noImprovement(30)))
+	 * At least one generation is run. Returns the number of generations run.
+	 */
+	public int runAlgorithm(StoppingCriterion stop) throws IOException {
+		int steps = 0;
+		GenerationStats stats;
+		do {
+			stats = step();
+			steps++;
+		}
+		while (!stop.shouldStop(stats));
+		if (fitnessFlag)
+			updateNiches();
+		return steps;
+	}
+
+	// Runs one generation and returns its measurements, which are also published to the listeners
+	public GenerationStats step() throws IOException {
+		GenerationEvent event = new GenerationEvent();
+		event.begin();
+		long generationStart = System.nanoTime();
+		long evaluationsBefore = evaluations.get();
+		long hitsBefore = cache.getHits();
+		stepThread = Thread.currentThread();
+		workerAllocated.reset();
+		long allocatedBefore = threadAllocatedBytes();
+		scoringNanos.reset();
+		selectionNanos.reset();
+		crossoverNanos.reset();
+		mutationNanos.reset();
+
+		int numPairs = (POPULATION_SIZE - 1) / 2;
+		prepareSpare(2 + 2*numPairs);
+		if (pool != null)
+			scorePopulation();
+		if (fitnessFlag)
+			updateNiches();
+
+		// Elitism: adds 2 fittest individuals immediately to next generation
+		long selectionStart = System.nanoTime();
+		long scoringBefore = scoringNanos.sum();
+		MusicSelection best = getBestPiece();
+		if (eliteHistory != null)
+			eliteHistory.add(new MusicSelection(best));
+		spare.get(0).copyFrom(best);
+		population.remove(best);
+		spare.get(1).copyFrom(getBestPiece());
+		population.add(best);
+		// Unscored individuals are scored by getBestPiece(); that time counts as scoring
+		selectionNanos.add(System.nanoTime() - selectionStart - (scoringNanos.sum() - scoringBefore));
+		GenerationStats stats = populationStats(best);
+
+		// Tournament selection
+		if (pool != null)
+			breedInParallel(numPairs);
+		else
+			for (int k = 0; k < numPairs; k++)
+				breedPair(spare.get(2 + 2*k), spare.get(3 + 2*k), gen);
+		// The old generation becomes the spare buffer for the next one
+		ArrayList<MusicSelection> bred = spare;
+		spare = population;
+		population = bred;
+		generation++;
+
+		stats.evaluations = evaluations.get() - evaluationsBefore;
+		stats.cacheHits = cache.getHits() - hitsBefore;
+		stats.scoringNanos = scoringNanos.sum();
+		stats.selectionNanos = selectionNanos.sum();
+		stats.crossoverNanos = crossoverNanos.sum();
+		stats.mutationNanos = mutationNanos.sum();
+		stats.elapsedNanos = System.nanoTime() - generationStart;
+		long allocatedAfter = threadAllocatedBytes();
+		stats.allocatedBytes = (allocatedBefore < 0 || allocatedAfter < 0) ? -1
+				: allocatedAfter - allocatedBefore + workerAllocated.sum();
+		stepThread = null;
+		stats.mutationRate = mutationRate;
+		if (adaptive)
+			adapt(stats);
+		publish(stats, event);
+		return stats;
+	}
+
+	/* Reacts to the diversity of the generation described by @stats.
+	 * When the fitness spread collapses, the mutation rate is doubled (up to MAX_MUTATION_RATE) and
+	 * the population grows by a quarter of its base size (up to MAX_POPULATION_GROWTH times), the new
+	 * slots being filled with freshly mutated originals. Once the spread recovers, both decay back
+	 * towards their initial values.
+	 */
+	private void adapt(GenerationStats stats) {
+		if (stats.fitnessStdDev < DIVERSITY_THRESHOLD) {
+			mutationRate = Math.min(MAX_MUTATION_RATE, mutationRate * 2);
+			int grown = Math.min(basePopulationSize * MAX_POPULATION_GROWTH, POPULATION_SIZE + basePopulationSize / 4);
+			for (int i = POPULATION_SIZE; i < grown; i++)
+				population.add(mutatedOriginal());
+			POPULATION_SIZE = grown;
+		}
+		else if (stats.fitnessStdDev > 2 * DIVERSITY_THRESHOLD) {
+			mutationRate = Math.max(PROBABILITY_OF_MUTATION, mutationRate / 2);
+			// The next generation breeds only POPULATION_SIZE individuals
+			POPULATION_SIZE = Math.max(basePopulationSize, POPULATION_SIZE - basePopulationSize / 4);
+		}
+	}
+
+	// Copy of a random original piece, mutated at INITIAL_MUTATION_RATE
+	private MusicSelection mutatedOriginal() {
+		MusicSelection mutatedCopy = new MusicSelection(getRandomIndividual(origPieces));
+		if (relative)
+			mutatedCopy.toRelative();
+		mutate(mutatedCopy, INITIAL_MUTATION_RATE);
+		mutatedCopy.check();
+		return mutatedCopy;
+	}
+
+	// Enables adapting the mutation rate and population size to the diversity of the population
+	public void setAdaptive(boolean on) {
+		adaptive = on;
+		if (!on) {
+			mutationRate = PROBABILITY_OF_MUTATION;
+			POPULATION_SIZE = basePopulationSize;
+		}
+	}
+
+	public double getMutationRate() {return mutationRate;}
+
+	public int getPopulationSize() {return POPULATION_SIZE;}
+
+	/* Makes the spare buffer hold @n individuals to breed into, reusing the ones it has.
+	 * Individuals are never shared between the buffers.
+	 */
+	private void prepareSpare(int n) {
+		while (spare.size() > n)
+			spare.remove(spare.size()-1);
+		while (spare.size() < n)
+			spare.add(new MusicSelection(new short[0], 0, chunkSize));
+	}
+
+	/* Selects two parents by tournament, crosses them over and mutates them, writing the offspring
+	 * into @child1 and @child2 in place
+	 */
+	private void breedPair(MusicSelection child1, MusicSelection child2, RandomGenerator rng) {
+		long start = System.nanoTime();
+		MusicSelection s1 = better(getRandomIndividual(population, rng),getRandomIndividual(population, rng));
+		MusicSelection s2 = better(getRandomIndividual(population, rng),getRandomIndividual(population, rng));
+		long selected = System.nanoTime();
+		selectionNanos.add(selected - start);
+		if (rng.nextDouble() < CROSSOVER_RATE)
+			crossoverInto(s1, s2, child1, child2, rng);
+		else {
+			child1.copyFrom(s1);
+			child2.copyFrom(s2);
+		}
+		long crossed = System.nanoTime();
+		crossoverNanos.add(crossed - selected);
+		mutate(child1, mutationRate, rng);
+		mutate(child2, mutationRate, rng);
+		child1.check();
+		child2.check();
+		mutationNanos.add(System.nanoTime() - crossed);
+	}
+
+	/* Breeds @numPairs pairs into the spare buffer on the pool.
+	 * Every pair gets its own SplittableRandom seeded from gen in pair order, so the result depends
+	 * only on the seed and not on the number of threads or how pairs are scheduled.
+	 */
+	private void breedInParallel(int numPairs) {
+		if (pairSeeds.length < numPairs)
+			pairSeeds = new long[numPairs];
+		long[] seeds = pairSeeds;
+		for (int k = 0; k < numPairs; k++)
+			seeds[k] = gen.nextLong();
+		pool.submit(() -> IntStream.range(0, numPairs).parallel().forEach(k -> onWorker(() ->
+			breedPair(spare.get(2 + 2*k), spare.get(3 + 2*k), new SplittableRandom(seeds[k]))
+		))).join();
+	}
+
+	// Fitness summary of the current population, which has been fully scored by getBestPiece()
+	private GenerationStats populationStats(MusicSelection best) {
+		GenerationStats stats = new GenerationStats();
+		stats.generation = generation;
+		stats.populationSize = population.size();
+		stats.bestFitness = fitness(best);
+		double total = 0;
+		double totalSquares = 0;
+		for (MusicSelection x : population) {
+			double f = fitness(x);
+			total += f;
+			totalSquares += f * f;
+		}
+		stats.meanFitness = total / population.size();
+		stats.fitnessStdDev = Math.sqrt(Math.max(0, totalSquares / population.size() - stats.meanFitness * stats.meanFitness));
+		return stats;
+	}
+
+	private void publish(GenerationStats stats, GenerationEvent event) {
+		if (event.shouldCommit()) {
+			event.set(stats);
+			event.commit();
+		}
+		for (GenerationListener l : listeners)
+			l.generationCompleted(stats);
+	}
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		return threads.isThreadAllocatedMemorySupported() ? threads : null;
+	}
+
+	// Bytes allocated so far by the calling thread, or -1 if the JVM cannot tell
+	private static long threadAllocatedBytes() {
+		if (THREADS == null || !THREADS.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return THREADS.getCurrentThreadAllocatedBytes();
+	}
+
+	/* Runs @work from a pool task. What it allocates counts towards the current generation if it runs
+	 * on another thread than step(), which measures its own thread as a whole. The pool may be shared,
+	 * so only these tasks are counted, not its threads.
+	 */
+	private void onWorker(Runnable work) {
+		if (Thread.currentThread() == stepThread) {
+			work.run();
+			return;
+		}
+		long before = threadAllocatedBytes();
+		work.run();
+		if (before >= 0)
+			workerAllocated.add(threadAllocatedBytes() - before);
+	}
+
+	public void addListener(GenerationListener l) {listeners.add(l);}
+	public void removeListener(GenerationListener l) {listeners.remove(l);}
+	public int getGeneration() {return generation;}
+
+	// Computes the fitness of every individual concurrently so later lookups hit the cache
+	public void scorePopulation() {
+		if (pool == null) {
+			for (MusicSelection x : population)
+				fitness(x);
+			return;
+		}
+		pool.submit(() -> population.parallelStream().forEach(x -> onWorker(() -> fitness(x)))).join();
+	}
+
+	// Runs generations on a pool with @threads workers; 1 restores the sequential algorithm
+	public void setParallelism(int threads) {
+		setPool(threads > 1 ? new ForkJoinPool(threads) : null);
+	}
+
+	// Runs generations on @p, which may be shared with other instances; null = sequential
+	public void setPool(ForkJoinPool p) {pool = p;}
+
+	/* Resamples @s in place to @targetChunkSize chunks per whole note, in a single pass.
+	 * Both sizes are laid on a grid of lcm(chunk size, @targetChunkSize) cells per whole note. Each
+	 * source chunk starts at a grid cell and is held over the following cells; each target chunk covers
+	 * a fixed number of cells:
+	 * - Upsampling: a source chunk becomes its value followed by holds (the previous behaviour).
+	 * - Downsampling: a target chunk takes the first note that starts within its cells, so short notes
+	 *   are not lost; without one it takes the chunk starting at its first cell, or a hold if its first
+	 *   cell continues an earlier chunk. Rests shorter than a target chunk may thus be absorbed.
+	 * A hold at the start of a target chunk becomes a rest if a rest is sounding there but a note is
+	 * sounding in the result, so a rest that outlasts a target chunk never lengthens the note before it.
+	 */
+	public static void equalize(MusicSelection s, int targetChunkSize) {
+		int sourceChunkSize = s.getChunkSize();
+		if (sourceChunkSize == targetChunkSize)
+			return;
+		int grid = lcm(sourceChunkSize, targetChunkSize);
+		int cellsPerSource = grid / sourceChunkSize;
+		int cellsPerTarget = grid / targetChunkSize;
+		int length = s.length();
+		long cells = (long)length * cellsPerSource;
+		int newLength = (int)((cells + cellsPerTarget - 1) / cellsPerTarget);
+		short[] resampled = new short[newLength];
+
+		int i = 0; // first source chunk that has not started before the current target chunk
+		boolean resting = false; // a rest, rather than a note, is sounding before chunk i
+		boolean resultResting = false; // the same for the resampled chunks written so far
+		for (int k = 0; k < newLength; k++) {
+			long cellStart = (long)k * cellsPerTarget;
+			long cellEnd = cellStart + cellsPerTarget;
+			int value = PitchProfile.HOLD;
+			if (i < length && (long)i * cellsPerSource == cellStart)
+				value = s.getChunkAt(i);
+			if (value == PitchProfile.HOLD && resting && !resultResting)
+				value = PitchProfile.REST;
+			for (; i < length && (long)i * cellsPerSource < cellEnd; i++) {
+				int curr = s.getChunkAt(i);
+				if (curr < PitchProfile.HOLD && value >= PitchProfile.HOLD)
+					value = curr;
+				if (curr != PitchProfile.HOLD)
+					resting = curr == PitchProfile.REST;
+			}
+			resampled[k] = (short)value;
+			if (value != PitchProfile.HOLD)
+				resultResting = value == PitchProfile.REST;
+		}
+		s.setChunks(resampled, newLength, targetChunkSize);
+	}
+
+	// Smallest chunk size to which every piece of @pieces can be equalized without loss
+	public static int commonChunkSize(List<MusicSelection> pieces) {
+		int size = 1;
+		for (MusicSelection s : pieces)
+			size = lcm(size, s.getChunkSize());
+		return size;
+	}
+
+	private static int lcm(int a, int b) {
+		int x = a, y = b;
+		while (y != 0) {
+			int t = x % y;
+			x = y;
+			y = t;
+		}
+		return a / x * b;
+	}
+
+	// Returns copies of the @k fittest individuals, fittest first
+	public ArrayList<MusicSelection> getTopIndividuals(int k) {
+		ArrayList<MusicSelection> sorted = new ArrayList<MusicSelection>(population);
+		sorted.sort((a, b) -> Double.compare(fitness(b), fitness(a)));
+		ArrayList<MusicSelection> top = new ArrayList<MusicSelection>(k);
+		for (int i = 0; i < k && i < sorted.size(); i++)
+			top.add(new MusicSelection(sorted.get(i)));
+		return top;
+	}
+
+	/* Replaces the least fit individuals with copies of @migrants.
+	 * Migrants may have been scored against other original pieces, so their fitness is recomputed here.
+	 */
+	public void acceptMigrants(List<MusicSelection> migrants) {
+		population.sort((a, b) -> Double.compare(fitness(a), fitness(b)));
+		for (int i = 0; i < migrants.size() && i < population.size(); i++) {
+			MusicSelection m = population.get(i);
+			m.copyFrom(migrants.get(i));
+			m.invalidateFitness();
+		}
+	}
+
+	// Keeps a copy of the best individual of every generation, e.g. for MIDIWorkshop.writeAll()
+	public void setRecordEliteHistory(boolean record) {
+		eliteHistory = record ? new ArrayList<MusicSelection>() : null;
+	}
+
+	public ArrayList<MusicSelection> getEliteHistory() {return eliteHistory;}
+	public ArrayList<MusicSelection> getPopulation() {return population;}
+	// After step(), the fittest individual of the previous population, carried over first into the current one
+	public MusicSelection getElite() {return population.get(0);}
+	public List<MusicSelection> getOriginals() {return origPieces;} // equalized
+	public OriginalSet getOriginalSet() {return originals;}
+	public GAConfig getConfig() {return new GAConfig(config);}
+	Random getRandom() {return gen;}
+
+	/* Continues a run saved by Checkpoint: replaces the population, elite history (null = not recorded),
+	 * generation count, random generator and adaptive parameters with the saved ones.
+	 */
+	void restore(ArrayList<MusicSelection> pop, ArrayList<MusicSelection> elites, int generations, Random rng,
+			double rate, int populationSize) {
+		population = pop;
+		eliteHistory = elites;
+		generation = generations;
+		gen = rng;
+		mutationRate = rate;
+		POPULATION_SIZE = populationSize;
+	}
+	public int getChunkSize() {return chunkSize;}
+	public long getEvaluations() {return evaluations.get();}
+	public FitnessCache getFitnessCache() {return cache;}
+	public void setFitnessCache(FitnessCache c) {cache = c;}
+
+	// Returns the selection with higher fitness
+	public MusicSelection better(MusicSelection s1, MusicSelection s2) {
+		if (fitness(s1) >= fitness(s2))
+			return s1;
+		return s2;
+	}
+
+	// Prints the contents and fitness of each individual in the population
+	public void printInfo() {
+		for (MusicSelection x : population) {
+			System.out.println(x);
+			System.out.println(fitnessOrig(x)+", "+fitness(x));
+		}
+	}
+
+	public boolean isNote(int n) {return (n>=0 && n<HOLD);}
+
+	public MusicSelection getRandomIndividual(List<MusicSelection> a) {
+		return getRandomIndividual(a, gen);
+	}
+
+	public MusicSelection getRandomIndividual(List<MusicSelection> a, RandomGenerator rng) {
+		return a.get(rng.nextInt(a.size()));
+	}
+
+	// converts to note representation
+	public String toNotes(MusicSelection s) {
+		s = s.absolute();
+		String translation = "";
+		for (int i = 0; i < s.length(); i++) {
+			int currChunk = s.getChunkAt(i);
+//			translation += currChunk + " ";
+			if (currChunk == HOLD)
+				translation += "h, ";
+			else if (currChunk == REST)
+				translation += "r, ";
+			else {
+				int mod = currChunk % NUM_NOTES_PER_OCTAVE;
+				switch (mod) {
+				case 0: translation += "c"; break;
+				case 1: translation += "c#"; break;
+				case 2: translation += "d"; break;
+				case 3: translation += "d#"; break;
+				case 4: translation += "e"; break;
+				case 5: translation += "f"; break;
+				case 6: translation += "f#"; break;
+				case 7: translation += "g"; break;
+				case 8: translation += "g#"; break;
+				case 9: translation += "a"; break;
+				case 10: translation += "a#"; break;
+				case 11: translation += "b"; break;
+				}
+				translation += (currChunk-mod)/12;
+				translation +=", ";
+			}
+		}
+		return translation;
+	}
+
+	public void printPopulationInfo(int n) throws IOException {
+		int maxLength = 0;
+		for (MusicSelection s : population)
+			maxLength = Math.max(maxLength, s.length());
+		PrintWriter out = new PrintWriter(new FileWriter("population"+n+".txt"));
+		for (int j = 0; j < maxLength; j++) {
+			out.printf("%d ", j);
+			for (MusicSelection s : population) {
+				if (s.length() > j)
+					out.printf("%3d ", s.getChunkAt(j));
+				else
+					out.printf("%3d ", 0);
+			}
+			out.println();
+		}
+		out.close();
+	}
+}
@@ -1,204 +1,639 @@
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.*;
-
-import javax.sound.midi.InvalidMidiDataException;
-
-public class MusicSelection {
-	private ArrayList<Integer> chunks; // vector with note, rest, and hold values
-	private int length;
-	private Random gen;
-	private final int MAX_NOTE_VALUE = 129; // 0-127 for MIDI notes, 128 for hold, 129 for rest
-	private final int HOLD = 128;
-	private final int REST = 129;
-	private int chunkSize; 
-	private int SELECTION_TYPE = 0; // 0 = absolute, 1 = relative
-	private final int MAX_INTERVAL = 8; 
-
-	// Constructs a random MusicSelection of length l and chunk size cs.
-	public MusicSelection(int l, int cs) {
-		chunkSize = cs;
-		length = l;
-		chunks = new ArrayList<Integer>();
-		gen = new Random(123456789);
-		// First chunk cannot be hold
-		int first;
-		do {
-			first = gen.nextInt(MAX_NOTE_VALUE+1);
-		} while(first == HOLD);
-		chunks.add(first);
-		
-		// If absolute model, generates pieces with random values between 0 and 129
-		if (SELECTION_TYPE == 0) {
-			for (int i = 1; i<length; i++) 
-				chunks.add(gen.nextInt(MAX_NOTE_VALUE+1));
-		}
-		// If relative model, generates pieces with random values in [-MAX_INTERVAL, MAX_INTERVAL]
-		else if (SELECTION_TYPE == 1) {
-			for (int i = 1; i<length; i++) {
-				int val = gen.nextInt(MAX_INTERVAL);
-				if (gen.nextDouble() > 0.5)
-					val *= -1;
-				chunks.add(val);
-			}
-		}
-	}
-
-	// Generates a MusicSelection from an ArrayList vector of values and a chunk size.
-	public MusicSelection(ArrayList<Integer> list, int cs) {
-		chunkSize = cs;
-		chunks = list;
-		length = list.size();
-	}
-
-	// Copy constructor
-	public MusicSelection(MusicSelection orig) {
-		chunks = orig.getChunks();
-		length = orig.length();
-		chunkSize = orig.getChunkSize();
-	}
-
-	public String toString() {
-		if (SELECTION_TYPE == 0)
-			return chunks.toString();
-		return toAbsolute().toString();
-	}
-
-	public int length() {return length;}
-	public int getChunkSize() {return chunkSize;}
-	public void setChunkSize(int c) {chunkSize = c;}
-	public ArrayList<Integer> getChunks() {return chunks;}
-	public int getChunkAt(int index) {return chunks.get(index);}
-	public void addHold(int index) {chunks.add(index, HOLD);}
-	public boolean isNote(int n) {return (n>=0 && n<HOLD);}
-	
-	// Returns position of last note before location at index.
-	public int lastNote(int index) {
-		for (int j = index-1; j>=0; j--) {
-			int curr = chunks.get(j);
-			if (isNote(curr))
-				return curr;
-		}
-		return REST;
-	}
-
-	/*
-	 * Changes value at a certain location
-	 * Absolute model: changes value at location.
-	 * Relative model: replaces location at @index with @newValue, replaces value at @index+1
-	 * with difference between that value and previous value at @index
-	 */
-	public void setChunkAt(int index, int newValue) {
-		if (SELECTION_TYPE == 0)
-			chunks.set(index, newValue);
-		else if (SELECTION_TYPE == 1) {
-			chunks.set(index, newValue);
-			if (index < length()-1) {
-				int diffAtIndex = (newValue-chunks.get(index));
-				chunks.set(index+1, chunks.get(index+1)-diffAtIndex);
-			}
-		}
-	}
-
-	// Absolute only: converts to relative
-	public void toRelative() {
-		ArrayList<Integer> relative = new ArrayList<Integer>(chunks);
-		int firstNoteLoc = 0;
-		while(!isNote(relative.get(firstNoteLoc)))
-			firstNoteLoc++;
-		// Starts at end of piece and goes backward to preserve relative relationships
-		for (int i = relative.size()-1; i > firstNoteLoc; i--) {
-			int currChunk = relative.get(i);
-			if (!isNote(currChunk))
-				relative.set(i, currChunk);
-			else {
-				int prevNoteLoc = i-1;
-				while(!isNote(relative.get(prevNoteLoc)))
-					prevNoteLoc--;
-				relative.set(i, currChunk-relative.get(prevNoteLoc));
-			}
-		}
-	}
-	
-	// relative only: converts to absolute
-	public ArrayList<Integer> toAbsolute() {
-		ArrayList<Integer> abs = new ArrayList<Integer>();
-		int i = 0;
-		// Add all rests and holds at beginning of piece
-		for (; chunks.get(i) == REST || chunks.get(i) == HOLD; i++)
-			abs.add(chunks.get(i));
-		// Adds first note value
-		abs.add(chunks.get(i));
-		i++;
-		// If rests or holds, add as is. 
-		// otherwise, adds previous note value + difference (value at current index)
-		for (; i < length; i++) {
-			int curr = chunks.get(i);
-			if (curr == HOLD || curr == REST)
-				abs.add(curr);
-			else
-				abs.add(lastNote(i)+curr);
-		}
-		return abs;
-	}
-	
-	// relative only; checks if all values are in the range [-1*MAX_INTERVAL, MAX_INTERVAL]
-	public void check() {
-		if (SELECTION_TYPE == 1) {
-			for (int x : chunks) {
-				if (x < -1*MAX_INTERVAL)
-					x = -1*MAX_INTERVAL;
-				else if (x > MAX_INTERVAL)
-					x = MAX_INTERVAL;
-			}
-		}
-	}
-	
-	public void generateMIDIText(String songName, String destination) 
-		throws InvalidMidiDataException, IOException {
-		PrintWriter out = new PrintWriter(new FileWriter(new File(destination)));
-		out.println("MFile 1 2 96");
-		out.println("MTrk");
-		out.println("0 TimeSig 4/4 24 8");
-		out.println("0 KeySig 0 major");
-		out.println("0 Tempo 600000");
-		out.println("0 Meta TrkName \""+ songName + "\"");
-		out.println("1 Meta TrkEnd");
-		out.println("TrkEnd");
-		out.println("MTrk");
-		out.println("0 Meta TrkName \"Piano\"");
-		// 25 midi units per 16th note
-		int MIDI_UNITS_PER_NOTE = 25 * 16 / getChunkSize();
-		int count = MIDI_UNITS_PER_NOTE;
-		int i = 0;
-		while (i < length) {
-			int curr = chunks.get(i);
-			if (isNote(curr)) {
-				out.println(count+" On ch=1 n="+curr+" v=70");
-				do {
-					i++;
-					count += MIDI_UNITS_PER_NOTE;
-				}
-				while(i<length && chunks.get(i)==HOLD);
-				out.println(count+" Off ch=1 n="+curr+" v=70");
-			}
-			else if (curr == REST) {
-				do {
-					i++;
-					count += MIDI_UNITS_PER_NOTE;
-				}
-				while(i<length && chunks.get(i)==HOLD);
-			}
-		}
-		out.println((count+1)+" Meta TrkEnd");
-		out.println("TrkEnd");
-		out.close();
-		
-//		System.out.println(MidiSystem.getMidiFileFormat(data));
-//		Sequence s = MidiSystem.getSequence(data);
-//		File output = new File("variant.mid");
-//		MidiSystem.write(s, 0, output);		
-	}
-}
+import java.io.IOException;
+import java.util.*;
+import java.util.random.RandomGenerator;
+
+/*
+ * A piece as a vector of chunks, in one of two representations:
+ * - absolute: each note chunk holds its MIDI pitch
+ * - relative: each note chunk holds the interval from the previous note, the first note the interval
+ *   from pitch 0 (i.e. its pitch). Holds and rests are the same in both.
+ * Relative selections evolve contours rather than pitches: crossover splices intervals, so a spliced
+ * passage follows on from the note before it. They are decoded to pitches (toAbsolute()) for scoring
+ * and output.
+ * A relative selection keeps its decoded form once it has been asked for (see decoded()) and updates
+ * it with every edit, so pitches are found without summing intervals and the decoded form can be
+ * rescored incrementally.
+ */
+public class MusicSelection {
+	private short[] chunks; // vector with note, rest, and hold values; only the first length entries are used
+	private int length;
+	private final int MAX_NOTE_VALUE = 129; // 0-127 for MIDI notes, 128 for hold, 129 for rest
+	private final int HOLD = 128;
+	private final int REST = 129;
+	private int chunkSize; 
+	private boolean relative = false; // note chunks hold intervals instead of pitches
+	private final int MAX_INTERVAL = 8; // largest interval check() lets through in relative selections
+	private double fitness; // cached fitness against the original pieces
+	private boolean fitnessValid = false;
+	private double crossVoice; // cached consonance with the other voices of a polyphonic run
+	private boolean crossVoiceValid = false;
+	private double nicheCount = 1; // individuals sharing this one's niche, itself included
+	private ScoreState scoreState; // running similarity terms for incremental rescoring, null if none
+	// Note index: bit i of noteBits is set if chunk i is a note, bit w of noteWords if noteBits[w] != 0
+	private long[] noteBits;
+	private long[] noteWords;
+	private boolean noteBitsValid = false;
+	// Relative only: the absolute form of the chunks, kept in step with them while decodedValid
+	private MusicSelection decoded;
+	private boolean decodedValid = false;
+
+	// Constructs a random absolute MusicSelection of length l and chunk size cs.
+	public MusicSelection(int l, int cs) {
+		this(l, cs, false);
+	}
+
+	// Constructs a random MusicSelection of length l and chunk size cs, relative if @rel is set.
+	public MusicSelection(int l, int cs, boolean rel) {
+		this(l, cs, rel, new Random(123456789));
+	}
+
+	// As above, drawing the chunks from @gen
+	public MusicSelection(int l, int cs, boolean rel, RandomGenerator gen) {
+		chunkSize = cs;
+		length = l;
+		chunks = new short[l];
+		relative = rel;
+		// If absolute model, generates pieces with random values between 0 and 129
+		if (!relative) {
+			// First chunk cannot be hold
+			int first;
+			do {
+				first = gen.nextInt(MAX_NOTE_VALUE+1);
+			} while(first == HOLD);
+			chunks[0] = (short)first;
+			for (int i = 1; i<length; i++) 
+				chunks[i] = (short)gen.nextInt(MAX_NOTE_VALUE+1);
+		}
+		// If relative model, generates a random walk from a random first note, with intervals in
+		// [-MAX_INTERVAL, MAX_INTERVAL] turned back at the ends of the MIDI range
+		else if (length > 0) {
+			int pitch = gen.nextInt(HOLD);
+			chunks[0] = (short)pitch;
+			for (int i = 1; i<length; i++) {
+				int val = gen.nextInt(2*MAX_INTERVAL+1) - MAX_INTERVAL;
+				if (pitch+val < 0 || pitch+val >= HOLD)
+					val *= -1;
+				pitch += val;
+				chunks[i] = (short)val;
+			}
+		}
+	}
+
+	// Generates a MusicSelection from an ArrayList vector of values and a chunk size.
+	public MusicSelection(ArrayList<Integer> list, int cs) {
+		chunkSize = cs;
+		length = list.size();
+		chunks = new short[length];
+		for (int i = 0; i < length; i++)
+			chunks[i] = (short)(int)list.get(i);
+	}
+
+	// Generates a MusicSelection from the first @l values of @values, which it takes ownership of.
+	public MusicSelection(short[] values, int l, int cs) {
+		this(values, l, cs, false);
+	}
+
+	// As above, with @values in the relative representation if @rel is set
+	public MusicSelection(short[] values, int l, int cs, boolean rel) {
+		chunkSize = cs;
+		chunks = values;
+		length = l;
+		relative = rel;
+	}
+
+	// Copy constructor; the cached fitness is carried over since the chunks are identical
+	public MusicSelection(MusicSelection orig) {
+		chunks = Arrays.copyOf(orig.chunks, orig.length);
+		length = orig.length();
+		chunkSize = orig.getChunkSize();
+		relative = orig.relative;
+		fitness = orig.fitness;
+		fitnessValid = orig.fitnessValid;
+		crossVoice = orig.crossVoice;
+		crossVoiceValid = orig.crossVoiceValid;
+		if (orig.scoreState != null)
+			scoreState = orig.scoreState.copy();
+		if (orig.noteBitsValid) {
+			noteBits = orig.noteBits.clone();
+			noteWords = orig.noteWords.clone();
+			noteBitsValid = true;
+		}
+		if (orig.decodedValid) {
+			decoded = new MusicSelection(orig.decoded);
+			decodedValid = true;
+		}
+	}
+
+	/* Makes this selection a copy of @orig, as the copy constructor does, reusing the arrays it already
+	 * has where they are large enough.
+	 */
+	public void copyFrom(MusicSelection orig) {
+		ScoreState state = scoreState;
+		copyChunksFrom(orig);
+		fitness = orig.fitness;
+		fitnessValid = orig.fitnessValid;
+		crossVoice = orig.crossVoice;
+		crossVoiceValid = orig.crossVoiceValid;
+		nicheCount = 1;
+		if (orig.scoreState != null) {
+			if (state == null)
+				state = orig.scoreState.copy();
+			else
+				state.copyFrom(orig.scoreState);
+			scoreState = state;
+		}
+		if (orig.noteBitsValid) {
+			noteBits = copyInto(orig.noteBits, noteBits);
+			noteWords = copyInto(orig.noteWords, noteWords);
+			noteBitsValid = true;
+		}
+		if (orig.decodedValid) {
+			if (decoded == null)
+				decoded = new MusicSelection(orig.decoded);
+			else
+				decoded.copyFrom(orig.decoded);
+			decodedValid = true;
+		}
+	}
+
+	// Replaces the chunks and chunk size with those of @orig; everything derived from them is invalidated
+	public void copyChunksFrom(MusicSelection orig) {
+		if (chunks.length < orig.length)
+			chunks = new short[Math.max(orig.length, chunks.length + chunks.length/2)];
+		System.arraycopy(orig.chunks, 0, chunks, 0, orig.length);
+		length = orig.length;
+		chunkSize = orig.chunkSize;
+		relative = orig.relative;
+		invalidateFitness();
+		scoreState = null;
+		noteBitsValid = false;
+		decodedValid = false;
+	}
+
+	private static long[] copyInto(long[] source, long[] dest) {
+		if (dest == null || dest.length < source.length)
+			return source.clone();
+		System.arraycopy(source, 0, dest, 0, source.length);
+		return dest;
+	}
+
+	public String toString() {
+		if (!relative)
+			return Arrays.toString(getChunks());
+		return Arrays.toString(toAbsolute());
+	}
+
+	public int length() {return length;}
+	public int getChunkSize() {return chunkSize;}
+	public void setChunkSize(int c) {chunkSize = c; invalidateFitness(); decodedValid = false;}
+	public short[] getChunks() {return Arrays.copyOf(chunks, length);}
+	public int getChunkAt(int index) {return chunks[index];}
+	public boolean isRelative() {return relative;}
+	public boolean isNote(int n) {return (n>=0 && n<HOLD);}
+	// True if chunk @index is a note, in either representation
+	public boolean isNoteAt(int index) {return holdsNote(chunks[index]);}
+	private boolean holdsNote(int n) {return relative ? n != HOLD && n != REST : isNote(n);}
+
+	// Inserts a hold at index, shifting later chunks right
+	public void addHold(int index) {
+		if (length == chunks.length)
+			chunks = Arrays.copyOf(chunks, Math.max(16, length*2));
+		System.arraycopy(chunks, index, chunks, index+1, length-index);
+		chunks[index] = HOLD;
+		length++;
+		invalidateFitness();
+		scoreState = null;
+		noteBitsValid = false;
+		if (decodedValid)
+			decoded.addHold(index);
+	}
+
+	// Replaces the whole selection with the first @l values of @values at chunk size @cs, taking ownership of @values
+	public void setChunks(short[] values, int l, int cs) {
+		chunks = values;
+		length = l;
+		chunkSize = cs;
+		invalidateFitness();
+		scoreState = null;
+		noteBitsValid = false;
+		decodedValid = false;
+	}
+
+	// Truncates or extends the selection to @l chunks; new chunks are rests
+	public void resize(int l) {
+		if (l > chunks.length)
+			chunks = Arrays.copyOf(chunks, l);
+		if (l > length)
+			Arrays.fill(chunks, length, l, (short)REST);
+		length = l;
+		invalidateFitness();
+		noteBitsValid = false;
+		if (decodedValid)
+			decoded.resize(l);
+	}
+
+	// Copies @count chunks starting at @from into @dest starting at @destPos
+	public void copyChunks(int from, short[] dest, int destPos, int count) {
+		System.arraycopy(chunks, from, dest, destPos, count);
+	}
+
+	/* Overwrites chunks [@from, @to) with the chunks of @source at the same positions.
+	 * Both must be in the same representation; for relative ones, this splices intervals, so the
+	 * chunks from @to on keep their intervals and follow the new passage. Where a first note, which
+	 * holds a pitch, enters or leaves the passage, pitches are copied instead (see copyLeadingRange).
+	 * @source is only read, so it may be shared with other threads.
+	 */
+	public void copyRange(MusicSelection source, int from, int to) {
+		if (source.relative != relative)
+			throw new IllegalArgumentException("Cannot copy between absolute and relative selections");
+		if (relative && !(hasNoteBefore(from) && source.scanNoteBefore(from))) {
+			copyLeadingRange(source, from, to);
+			return;
+		}
+		int pitchAtTo = decodedValid ? pitchBefore(to) : 0;
+		System.arraycopy(source.chunks, from, chunks, from, to-from);
+		invalidateFitness();
+		if (noteBitsValid)
+			for (int i = from; i < to; i++)
+				setNoteBit(i, holdsNote(chunks[i]));
+		if (scoreState != null)
+			scoreState.markDirty(from, to);
+		if (decodedValid)
+			redecode(from, to, pitchAtTo);
+	}
+
+	/* Relative only: brings the decoded form up to date after the intervals in [@from, @to) changed,
+	 * given the pitch @pitchAtTo sounding at @to before the change. The passage is decoded again, and
+	 * the notes after it are transposed if its last pitch moved.
+	 */
+	private void redecode(int from, int to, int pitchAtTo) {
+		int pitch = pitchBefore(from);
+		short[] abs = decoded.chunks;
+		for (int i = from; i < to; i++) {
+			int curr = chunks[i];
+			if (holdsNote(curr)) {
+				pitch += curr;
+				abs[i] = (short)pitch;
+			}
+			else
+				abs[i] = (short)curr;
+		}
+		int shift = pitchBefore(to) - pitchAtTo;
+		if (shift != 0)
+			for (int i = to; i < length; i++)
+				if (holdsNote(chunks[i]))
+					abs[i] += shift;
+		decoded.changed(from, shift != 0 ? length : to);
+	}
+
+	/* Relative only: copyRange() where this selection or @source has no note before @from, so that the
+	 * first note of either may be in the passage or after it. The passage takes its pitches from
+	 * @source, and the notes after it keep theirs unless a note came before them both before and after
+	 * the copy, in which case they follow the passage as usual. The intervals from @from up to the
+	 * first note after the passage are then derived from the pitches, so the first note of the result
+	 * holds its pitch and a former first note the interval to it.
+	 */
+	private void copyLeadingRange(MusicSelection source, int from, int to) {
+		short[] abs = decoded().chunks;
+		boolean noteBeforeTo = hasNoteBefore(to);
+		int pitchAtTo = pitchBefore(to);
+		// Pitches of the passage in @source, decoded without building anything in @source
+		int pitch = 0;
+		for (int i = 0; i < to; i++) {
+			int curr = source.chunks[i];
+			if (holdsNote(curr))
+				pitch += curr;
+			if (i >= from)
+				abs[i] = (short)(holdsNote(curr) ? pitch : curr);
+		}
+		System.arraycopy(source.chunks, from, chunks, from, to-from);
+		for (int i = from; i < to; i++)
+			setNoteBit(i, holdsNote(chunks[i]));
+		if (noteBeforeTo && hasNoteBefore(to)) {
+			int shift = pitchBefore(to) - pitchAtTo;
+			if (shift != 0)
+				for (int i = to; i < length; i++)
+					if (holdsNote(chunks[i]))
+						abs[i] += shift;
+		}
+		boolean first = !hasNoteBefore(from);
+		int previous = pitchBefore(from);
+		for (int i = from; i < length; i++) {
+			if (!holdsNote(chunks[i]))
+				continue;
+			chunks[i] = (short)(first ? abs[i] : abs[i] - previous);
+			first = false;
+			previous = abs[i];
+			if (i >= to)
+				break;
+		}
+		invalidateFitness();
+		if (scoreState != null)
+			scoreState.markDirty(from, length);
+		decoded.changed(from, length);
+	}
+
+	// True if there is a note before @index; scans rather than using the note index, so nothing is built
+	private boolean scanNoteBefore(int index) {
+		for (int i = 0; i < index; i++)
+			if (holdsNote(chunks[i]))
+				return true;
+		return false;
+	}
+
+	// Invalidates everything derived from chunks [@from, @to), which were written directly
+	private void changed(int from, int to) {
+		invalidateFitness();
+		noteBitsValid = false;
+		if (scoreState != null)
+			scoreState.markDirty(from, to);
+	}
+
+	// Returns a new MusicSelection holding chunks [@from, @to), in the same representation
+	public MusicSelection slice(int from, int to) {
+		MusicSelection s = new MusicSelection(Arrays.copyOfRange(chunks, from, to), to-from, chunkSize, relative);
+		if (relative && from > 0) {
+			// The first note of the slice becomes its pitch
+			int i = 0;
+			while (i < s.length && !s.holdsNote(s.chunks[i]))
+				i++;
+			if (i < s.length)
+				s.chunks[i] += pitchBefore(from);
+		}
+		return s;
+	}
+
+	// True if both selections hold the same sequence of chunks in the same representation
+	public boolean sameChunks(MusicSelection other) {
+		return relative == other.relative && Arrays.equals(chunks, 0, length, other.chunks, 0, other.length);
+	}
+
+	public int chunkHash() {
+		int h = 1;
+		for (int i = 0; i < length; i++)
+			h = 31*h + chunks[i];
+		return h;
+	}
+
+	// Cached fitness; cleared whenever the chunks change
+	public boolean hasFitness() {return fitnessValid;}
+	public double getFitness() {return fitness;}
+	public void setFitness(double f) {fitness = f; fitnessValid = true;}
+	public void invalidateFitness() {fitnessValid = false; crossVoiceValid = false;}
+	// Cached consonance with the accompanying voices; cleared when the chunks or the accompaniment change
+	public boolean hasCrossVoice() {return crossVoiceValid;}
+	public double getCrossVoice() {return crossVoice;}
+	public void setCrossVoice(double c) {crossVoice = c; crossVoiceValid = true;}
+	public void invalidateCrossVoice() {crossVoiceValid = false;}
+	public double getNicheCount() {return nicheCount;}
+	public void setNicheCount(double n) {nicheCount = n;}
+	public ScoreState getScoreState() {return scoreState;}
+	public void setScoreState(ScoreState state) {scoreState = state;}
+	
+	// Returns the last note before location at index, or REST if there is none
+	public int lastNote(int index) {
+		if (!hasNoteBefore(index))
+			return REST;
+		if (relative)
+			return pitchBefore(index);
+		return chunks[noteAtOrBefore(index-1)];
+	}
+
+	// True if there is a note before location at index
+	public boolean hasNoteBefore(int index) {
+		if (!noteBitsValid)
+			buildNoteBits();
+		return noteAtOrBefore(index-1) >= 0;
+	}
+
+	// Relative only: pitch of the last note before @index, 0 if there is none; read from the decoded form
+	private int pitchBefore(int index) {
+		if (!noteBitsValid)
+			buildNoteBits();
+		int i = noteAtOrBefore(index-1);
+		return i < 0 ? 0 : decoded().chunks[i];
+	}
+
+	// Index of the last note at or before @i, or -1; looks at one word of each level of the note index
+	private int noteAtOrBefore(int i) {
+		if (i < 0)
+			return -1;
+		int w = i >>> 6;
+		long word = noteBits[w] & (-1L >>> (63 - (i & 63)));
+		if (word != 0)
+			return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+		if (--w < 0)
+			return -1;
+		int sw = w >>> 6;
+		long summary = noteWords[sw] & (-1L >>> (63 - (w & 63)));
+		while (summary == 0) {
+			if (--sw < 0)
+				return -1;
+			summary = noteWords[sw];
+		}
+		w = (sw << 6) + 63 - Long.numberOfLeadingZeros(summary);
+		return (w << 6) + 63 - Long.numberOfLeadingZeros(noteBits[w]);
+	}
+
+	// Builds the note index in one pass over the chunks
+	private void buildNoteBits() {
+		int words = (length + 63) >>> 6;
+		int summaryWords = (words + 63) >>> 6;
+		if (noteBits == null || noteBits.length < words)
+			noteBits = new long[Math.max(1, words)];
+		else
+			Arrays.fill(noteBits, 0);
+		if (noteWords == null || noteWords.length < summaryWords)
+			noteWords = new long[Math.max(1, summaryWords)];
+		else
+			Arrays.fill(noteWords, 0);
+		for (int i = 0; i < length; i++)
+			if (holdsNote(chunks[i]))
+				noteBits[i >>> 6] |= 1L << i;
+		for (int w = 0; w < words; w++)
+			if (noteBits[w] != 0)
+				noteWords[w >>> 6] |= 1L << w;
+		noteBitsValid = true;
+	}
+
+	private void setNoteBit(int i, boolean note) {
+		int w = i >>> 6;
+		if (note) {
+			noteBits[w] |= 1L << i;
+			noteWords[w >>> 6] |= 1L << w;
+		}
+		else {
+			noteBits[w] &= ~(1L << i);
+			if (noteBits[w] == 0)
+				noteWords[w >>> 6] &= ~(1L << w);
+		}
+	}
+
+	/*
+	 * Changes value at a certain location
+	 * Absolute model: changes value at location.
+	 * Relative model: replaces location at @index with @newValue, and corrects the interval of the
+	 * next note so that it keeps its pitch; only the pitch at @index changes.
+	 */
+	public void setChunkAt(int index, int newValue) {
+		invalidateFitness();
+		if (scoreState != null)
+			scoreState.markDirty(index, Math.min(index+2, length));
+		if (!relative) {
+			chunks[index] = (short)newValue;
+			if (noteBitsValid)
+				setNoteBit(index, isNote(newValue));
+		}
+		else {
+			if (decodedValid) {
+				// Only the pitch at @index changes
+				decoded.chunks[index] = (short)(holdsNote(newValue) ? pitchBefore(index) + newValue : newValue);
+				decoded.changed(index, Math.min(index+2, length));
+			}
+			// Change in the pitch the next note is relative to
+			int diffAtIndex = (holdsNote(newValue) ? newValue : 0) - (holdsNote(chunks[index]) ? chunks[index] : 0);
+			chunks[index] = (short)newValue;
+			if (noteBitsValid)
+				setNoteBit(index, holdsNote(newValue));
+			if (diffAtIndex != 0) {
+				int next = index+1;
+				while (next < length && !holdsNote(chunks[next]))
+					next++;
+				if (next < length)
+					chunks[next] = (short)(chunks[next]-diffAtIndex);
+			}
+		}
+	}
+
+	// Converts an absolute selection to relative in place, in one pass; the music, and so the fitness, is unchanged
+	public void toRelative() {
+		if (relative)
+			return;
+		// The chunks are the decoded form, which takes over the similarity terms
+		if (decoded == null)
+			decoded = new MusicSelection(this);
+		else
+			decoded.copyFrom(this);
+		decodedValid = true;
+		int previous = 0;
+		for (int i = 0; i < length; i++) {
+			int currChunk = chunks[i];
+			if (isNote(currChunk)) {
+				chunks[i] = (short)(currChunk-previous);
+				previous = currChunk;
+			}
+		}
+		relative = true;
+		scoreState = null;
+	}
+	
+	// Pitches of this selection in the absolute representation, as a new array; decoded in one pass if relative
+	public short[] toAbsolute() {
+		short[] abs = new short[length];
+		decodeInto(abs);
+		return abs;
+	}
+
+	// This selection if it is absolute, otherwise a decoded absolute copy
+	public MusicSelection absolute() {
+		return relative ? new MusicSelection(toAbsolute(), length, chunkSize) : this;
+	}
+
+	/* Makes @dest an absolute copy of this selection, reusing its array where it is large enough.
+	 * Nothing cached is carried over.
+	 */
+	public void absoluteInto(MusicSelection dest) {
+		if (dest.chunks.length < length)
+			dest.chunks = new short[Math.max(length, dest.chunks.length + dest.chunks.length/2)];
+		decodeInto(dest.chunks);
+		dest.length = length;
+		dest.chunkSize = chunkSize;
+		dest.relative = false;
+		dest.invalidateFitness();
+		dest.scoreState = null;
+		dest.noteBitsValid = false;
+	}
+
+	/* The absolute form of this selection: itself if it is absolute, otherwise decoded in one pass when
+	 * first asked for and then updated by every edit (see setChunkAt and copyRange). Scoring it, rather
+	 * than a fresh decoded copy, lets the similarity terms it carries be updated incrementally.
+	 * It must not be changed.
+	 */
+	public MusicSelection decoded() {
+		if (!relative)
+			return this;
+		if (!decodedValid) {
+			if (decoded == null)
+				decoded = new MusicSelection(new short[length], 0, chunkSize);
+			absoluteInto(decoded);
+			decodedValid = true;
+		}
+		return decoded;
+	}
+
+	// Clears the similarity terms of this selection and of its decoded form
+	public void clearScoreState() {
+		scoreState = null;
+		if (decoded != null)
+			decoded.scoreState = null;
+	}
+
+	// Writes the absolute chunks to the start of @abs
+	private void decodeInto(short[] abs) {
+		if (!relative || decodedValid) {
+			System.arraycopy(relative ? decoded.chunks : chunks, 0, abs, 0, length);
+			return;
+		}
+		// Rests and holds are kept as they are; notes are the previous pitch plus their interval
+		int lastNote = 0;
+		for (int i = 0; i < length; i++) {
+			int curr = chunks[i];
+			if (curr == HOLD || curr == REST)
+				abs[i] = (short)curr;
+			else {
+				lastNote += curr;
+				abs[i] = (short)lastNote;
+			}
+		}
+	}
+	
+	/* Relative only: clamps the intervals to [-1*MAX_INTERVAL, MAX_INTERVAL], and all intervals and the
+	 * first note so that every pitch stays in the MIDI range, in one pass. Later pitches move with
+	 * a clamped interval.
+	 */
+	public void check() {
+		if (!relative)
+			return;
+		int pitch = -1; // none yet
+		boolean moved = false; // whether the decoded pitches from here on have moved
+		for (int i = 0; i < length; i++) {
+			int x = chunks[i];
+			if (!holdsNote(x))
+				continue;
+			int clamped;
+			if (pitch < 0)
+				clamped = Math.max(0, Math.min(HOLD-1, x));
+			else {
+				clamped = Math.max(-1*MAX_INTERVAL, Math.min(MAX_INTERVAL, x));
+				clamped = Math.max(-pitch, Math.min(HOLD-1-pitch, clamped));
+			}
+			if (clamped != x) {
+				chunks[i] = (short)clamped;
+				invalidateFitness();
+				if (scoreState != null)
+					scoreState.markDirty(i, length);
+				if (decodedValid && !moved)
+					decoded.changed(i, length);
+				moved = true;
+			}
+			pitch = Math.max(pitch, 0) + clamped;
+			if (decodedValid && moved)
+				decoded.chunks[i] = (short)pitch;
+		}
+	}
+	
+	// Writes this selection as a Standard MIDI File
+	public void generateMIDI(String songName, String destination) throws IOException {
+		MIDIWorkshop.write(this, songName, destination);
+	}
+}
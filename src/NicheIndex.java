@@ -0,0 +1,105 @@
+import java.util.*;
+
+/*
+ * Locality-sensitive index used for fitness sharing (niching).
+ * Each individual is summarized by its duration-weighted pitch-class histogram, normalized to unit
+ * length. The histograms are hashed with random hyperplanes (SimHash) into several tables, so that
+ * individuals with similar histograms tend to share a bucket in at least one table. The niche count
+ * of an individual sums the sharing function over the individuals it meets in its buckets only,
+ * instead of over the whole population.
+ */
+public class NicheIndex {
+	private static final int NUM_TABLES = 4;
+	private static final int BITS_PER_TABLE = 6;
+	private static final int ALPHA = 1; // shape of the sharing function
+	private static final int DIMENSIONS = PitchProfile.NUM_NOTES_PER_OCTAVE;
+
+	private double[][][] hyperplanes = new double[NUM_TABLES][BITS_PER_TABLE][DIMENSIONS];
+	private double radius;
+
+	// @radius: cosine distance below which two individuals share fitness
+	public NicheIndex(double radius, long seed) {
+		this.radius = radius;
+		Random gen = new Random(seed);
+		for (double[][] table : hyperplanes)
+			for (double[] plane : table)
+				for (int d = 0; d < DIMENSIONS; d++)
+					plane[d] = gen.nextGaussian();
+	}
+
+	/* Returns the niche count of every individual in @population, in order.
+	 * Each count includes the individual itself, so it is at least 1.
+	 */
+	public double[] nicheCounts(List<MusicSelection> population) {
+		int n = population.size();
+		double[][] features = new double[n][];
+		ArrayList<HashMap<Integer, ArrayList<Integer>>> tables = new ArrayList<HashMap<Integer, ArrayList<Integer>>>(NUM_TABLES);
+		int[][] keys = new int[n][NUM_TABLES];
+		for (int t = 0; t < NUM_TABLES; t++)
+			tables.add(new HashMap<Integer, ArrayList<Integer>>());
+		for (int i = 0; i < n; i++) {
+			features[i] = histogram(population.get(i));
+			for (int t = 0; t < NUM_TABLES; t++) {
+				keys[i][t] = hash(features[i], hyperplanes[t]);
+				tables.get(t).computeIfAbsent(keys[i][t], k -> new ArrayList<Integer>()).add(i);
+			}
+		}
+
+		double[] counts = new double[n];
+		int[] seen = new int[n]; // query stamp, so neighbours in several tables count once
+		for (int i = 0; i < n; i++) {
+			double count = 1;
+			seen[i] = i+1;
+			for (int t = 0; t < NUM_TABLES; t++) {
+				for (int j : tables.get(t).get(keys[i][t])) {
+					if (seen[j] == i+1)
+						continue;
+					seen[j] = i+1;
+					double distance = 1 - dot(features[i], features[j]);
+					if (distance < radius)
+						count += 1 - Math.pow(distance / radius, ALPHA);
+				}
+			}
+			counts[i] = count;
+		}
+		return counts;
+	}
+
+	// Duration-weighted pitch-class histogram of @s with unit length, decoding relative selections on the way
+	private static double[] histogram(MusicSelection s) {
+		double[] h = new double[DIMENSIONS];
+		boolean relative = s.isRelative();
+		int pitch = 0;
+		int lastNote = -1;
+		for (int i = 0; i < s.length(); i++) {
+			int curr = s.getChunkAt(i);
+			if (s.isNoteAt(i)) {
+				pitch = relative ? pitch + curr : curr;
+				lastNote = pitch % DIMENSIONS;
+			}
+			if (lastNote >= 0)
+				h[lastNote]++;
+		}
+		double norm = Math.sqrt(dot(h, h));
+		if (norm > 0)
+			for (int d = 0; d < DIMENSIONS; d++)
+				h[d] /= norm;
+		return h;
+	}
+
+	// Sign pattern of @v against the hyperplanes of one table
+	private static int hash(double[] v, double[][] planes) {
+		int key = 0;
+		for (int b = 0; b < planes.length; b++)
+			if (dot(v, planes[b]) >= 0)
+				key |= 1 << b;
+		return key;
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int d = 0; d < a.length; d++)
+			sum += a[d] * b[d];
+		return sum;
+	}
+}
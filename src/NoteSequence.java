@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+/*
+ * The notes of a MusicSelection as parallel arrays of onset, pitch and duration (in chunks), decoded in
+ * a single pass over its chunks. Holds extend the note before them; rests are the gaps between notes.
+ * Feature extractors read this instead of scanning the chunks again (see FeatureFitness).
+ * A sequence can be decoded again and again, reusing its arrays.
+ */
+public class NoteSequence {
+	private static final int HOLD = 128;
+	private static final int REST = 129;
+
+	private int[] onsets = new int[16];
+	private int[] pitches = new int[16];
+	private int[] durations = new int[16];
+	private int count;
+	private int length; // in chunks
+	private int chunkSize;
+
+	public NoteSequence() {}
+
+	public NoteSequence(MusicSelection s) {
+		decode(s);
+	}
+
+	// Replaces the contents with the notes of @s
+	public void decode(MusicSelection s) {
+		length = s.length();
+		chunkSize = s.getChunkSize();
+		if (onsets.length < length) {
+			int capacity = Math.max(length, onsets.length + onsets.length/2);
+			onsets = Arrays.copyOf(onsets, capacity);
+			pitches = Arrays.copyOf(pitches, capacity);
+			durations = Arrays.copyOf(durations, capacity);
+		}
+		count = 0;
+		boolean sounding = false;
+		for (int i = 0; i < length; i++) {
+			int c = s.getChunkAt(i);
+			if (c == HOLD) {
+				if (sounding)
+					durations[count - 1]++;
+			}
+			else if (c == REST)
+				sounding = false;
+			else {
+				onsets[count] = i;
+				pitches[count] = c;
+				durations[count] = 1;
+				count++;
+				sounding = true;
+			}
+		}
+	}
+
+	public int count() {return count;}
+	public int length() {return length;}
+	public int getChunkSize() {return chunkSize;}
+	public int getOnset(int n) {return onsets[n];}
+	public int getPitch(int n) {return pitches[n];}
+	public int getDuration(int n) {return durations[n];}
+	// Semitones from note @n-1 to note @n, for n >= 1
+	public int getInterval(int n) {return pitches[n] - pitches[n-1];}
+}
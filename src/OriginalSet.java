@@ -0,0 +1,43 @@
+import java.util.*;
+
+/*
+ * Original pieces prepared for scoring: equalized copies at a common chunk size together with their
+ * pitch profiles. Nothing is modified after construction, so one instance can be shared by any
+ * number of MusicGeneticAlgorithms, including ones running on different threads. The CorpusIndex
+ * over the originals is built once, when it is first asked for.
+ */
+public class OriginalSet {
+	private List<MusicSelection> pieces;
+	private PitchProfile[] profiles;
+	private int chunkSize;
+	private CorpusIndex index; // built on first use
+
+	// Equalizes copies of @pieces to their common chunk size; @pieces themselves are not modified
+	public OriginalSet(List<MusicSelection> pieces) {
+		chunkSize = MusicGeneticAlgorithm.commonChunkSize(pieces);
+		ArrayList<MusicSelection> copies = new ArrayList<MusicSelection>(pieces.size());
+		for (MusicSelection s : pieces) {
+			MusicSelection copy = new MusicSelection(s);
+			MusicGeneticAlgorithm.equalize(copy, chunkSize);
+			copies.add(copy);
+		}
+		this.pieces = Collections.unmodifiableList(copies);
+		profiles = new PitchProfile[copies.size()];
+		for (int i = 0; i < profiles.length; i++)
+			profiles[i] = new PitchProfile(copies.get(i));
+	}
+
+	// The equalized pieces; callers must copy a piece before changing it
+	public List<MusicSelection> getPieces() {return pieces;}
+	public MusicSelection get(int i) {return pieces.get(i);}
+	public int size() {return pieces.size();}
+	public int getChunkSize() {return chunkSize;}
+	PitchProfile[] getProfiles() {return profiles;}
+
+	// Index for comparing candidates with many originals, shared by everyone using this set
+	public synchronized CorpusIndex getIndex() {
+		if (index == null)
+			index = new CorpusIndex(this);
+		return index;
+	}
+}
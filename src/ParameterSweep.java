@@ -0,0 +1,160 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Runs the genetic algorithm for many configurations and seeds concurrently.
+ * Every run is sequential and gets one worker of a fixed-size pool; all runs share one OriginalSet.
+ * A line of CSV is written for each run as soon as it finishes, so results appear in completion order
+ * and a long sweep can be watched or cut short.
+ *
+ * Usage: java ParameterSweep [mutationRate=0.01,0.05,0.1] [crossoverRate=0.7,0.9] ... [seeds=1,2,3]
+ *        [threads=8] [steps=100] [patience=30] [files=files.txt] [out=sweep.csv]
+ * Every parameter of GAConfig may be given a list of values; the sweep covers all their combinations.
+ */
+public class ParameterSweep {
+	private OriginalSet originals;
+	private int threads;
+
+	// Runs on @originals with @threads concurrent runs
+	public ParameterSweep(OriginalSet originals, int threads) {
+		this.originals = originals;
+		this.threads = threads;
+	}
+
+	/* Every combination of the values in @axes, applied to copies of @base.
+	 * @axes maps parameter names of GAConfig to their values; the first axis varies slowest.
+	 */
+	public static ArrayList<GAConfig> grid(GAConfig base, LinkedHashMap<String, double[]> axes) {
+		ArrayList<GAConfig> configs = new ArrayList<GAConfig>();
+		configs.add(new GAConfig(base));
+		for (Map.Entry<String, double[]> axis : axes.entrySet()) {
+			ArrayList<GAConfig> expanded = new ArrayList<GAConfig>(configs.size() * axis.getValue().length);
+			for (GAConfig c : configs)
+				for (double v : axis.getValue()) {
+					GAConfig copy = new GAConfig(c);
+					copy.set(axis.getKey(), v);
+					expanded.add(copy);
+				}
+			configs = expanded;
+		}
+		return configs;
+	}
+
+	/* Runs every configuration of @configs with every seed of @seeds for at most @maxGenerations
+	 * generations, stopping a run early after @patience generations without improvement (0 = never).
+	 * Writes a CSV header and then one line per run to @out.
+	 */
+	public void run(List<GAConfig> configs, long[] seeds, int maxGenerations, int patience, Writer out) throws IOException {
+		StringBuilder header = new StringBuilder("run");
+		for (String parameter : GAConfig.PARAMETERS)
+			header.append(',').append(parameter);
+		header.append(",seed,generations,bestFitness,bestSimilarity,meanFitness,fitnessStdDev,evaluations,millis\n");
+		out.write(header.toString());
+		out.flush();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			CompletionService<String> results = new ExecutorCompletionService<String>(pool);
+			int runs = 0;
+			for (GAConfig config : configs)
+				for (long seed : seeds) {
+					int run = runs++;
+					results.submit(() -> runOne(run, config, seed, maxGenerations, patience));
+				}
+			for (int i = 0; i < runs; i++) {
+				out.write(results.take().get());
+				out.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Sweep interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Sweep run failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Runs one configuration and returns its CSV line
+	private String runOne(int run, GAConfig config, long seed, int maxGenerations, int patience) throws IOException {
+		long start = System.nanoTime();
+		MusicGeneticAlgorithm g = new MusicGeneticAlgorithm(originals, config, seed);
+		GenerationStats[] last = new GenerationStats[1];
+		g.addListener(stats -> last[0] = stats);
+		StoppingCriterion stop = StoppingCriterion.maxGenerations(maxGenerations);
+		if (patience > 0)
+			stop = StoppingCriterion.anyOf(stop, StoppingCriterion.noImprovement(patience));
+		int generations = g.runAlgorithm(stop);
+		MusicSelection best = g.getBestPiece();
+
+		StringBuilder line = new StringBuilder().append(run);
+		for (double v : config.values())
+			line.append(',').append(format(v));
+		line.append(',').append(seed).append(',').append(generations);
+		line.append(',').append(g.fitness(best)).append(',').append(g.fitnessOrig(best));
+		line.append(',').append(last[0].meanFitness).append(',').append(last[0].fitnessStdDev);
+		line.append(',').append(g.getEvaluations()).append(',').append((System.nanoTime() - start) / 1000000);
+		return line.append('\n').toString();
+	}
+
+	public static void main(String args[]) throws IOException {
+		LinkedHashMap<String, double[]> axes = new LinkedHashMap<String, double[]>();
+		long[] seeds = {123456};
+		int threads = Runtime.getRuntime().availableProcessors();
+		int steps = 100;
+		int patience = 30;
+		String files = "files.txt";
+		String outFile = null;
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			if (kv.length < 2)
+				throw new IllegalArgumentException("Expected name=value: " + arg);
+			if (kv[0].equals("seeds")) {
+				String[] parts = kv[1].split(",");
+				seeds = new long[parts.length];
+				for (int i = 0; i < parts.length; i++)
+					seeds[i] = Long.parseLong(parts[i]);
+			}
+			else if (kv[0].equals("threads"))
+				threads = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("steps"))
+				steps = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("patience"))
+				patience = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("files"))
+				files = kv[1];
+			else if (kv[0].equals("out"))
+				outFile = kv[1];
+			else if (Arrays.asList(GAConfig.PARAMETERS).contains(kv[0]))
+				axes.put(kv[0], parseList(kv[1]));
+			else
+				throw new IllegalArgumentException("Unknown option: " + arg);
+		}
+
+		OriginalSet originals = new OriginalSet(Driver.readPieces(files));
+		ArrayList<GAConfig> configs = grid(new GAConfig(), axes);
+		Writer out = outFile == null ? new OutputStreamWriter(System.out) : new BufferedWriter(new FileWriter(outFile));
+		try {
+			new ParameterSweep(originals, threads).run(configs, seeds, steps, patience, out);
+		} finally {
+			if (outFile != null)
+				out.close();
+			else
+				out.flush();
+		}
+	}
+
+	// Integer-valued parameters are written without a fraction
+	private static String format(double v) {
+		return v == Math.rint(v) ? Long.toString((long)v) : Double.toString(v);
+	}
+
+	private static double[] parseList(String s) {
+		String[] parts = s.split(",");
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Double.parseDouble(parts[i]);
+		return values;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Hold-resolved pitch-class vector of a MusicSelection, as used by the cosine similarity in fitnessOrig().
+ * Every chunk is replaced by the pitch class of the note sounding at that point: holds and rests carry
+ * the last note forward, and chunks before the first note keep the value of a rest.
+ * Profiles of the original pieces are built once, together with prefix sums of their squared
+ * values so the norm over any prefix is a lookup.
+ */
+public class PitchProfile {
+	public static final int HOLD = 128;
+	public static final int REST = 129;
+	public static final int NUM_NOTES_PER_OCTAVE = 12;
+	// Lane code for chunks before the first note; other lanes are pitch classes
+	public static final int LEADING = NUM_NOTES_PER_OCTAVE;
+
+	/* TRANSPOSE[shift][lane] is the value of a lane after transposing by shift semitones.
+	 * Leading chunks are not transposed and keep the value of a rest.
+	 */
+	private static final int[][] TRANSPOSE = new int[NUM_NOTES_PER_OCTAVE][NUM_NOTES_PER_OCTAVE+1];
+	static {
+		for (int shift = 0; shift < NUM_NOTES_PER_OCTAVE; shift++) {
+			for (int pc = 0; pc < NUM_NOTES_PER_OCTAVE; pc++)
+				TRANSPOSE[shift][pc] = (pc + shift) % NUM_NOTES_PER_OCTAVE;
+			TRANSPOSE[shift][LEADING] = REST;
+		}
+	}
+
+	private int[] lanes; // lane codes: pitch class, or LEADING
+	private int[] values; // lane values without transposition
+	private long[] squares; // squares[i] = sum of values[j]^2 for j < i
+	private int firstNote; // first note of the piece, -1 if it has none
+	private int length;
+
+	public PitchProfile(MusicSelection s) {
+		set(s);
+	}
+
+	/* Recomputes the profile for @s, reusing the arrays if they are large enough.
+	 * Only for scratch profiles (see SimilarityKernel.profile()); profiles of originals are shared and never change.
+	 */
+	void set(MusicSelection s) {
+		length = s.length();
+		if (lanes == null || lanes.length < length) {
+			int capacity = Math.max(length, lanes == null ? 0 : lanes.length + lanes.length/2);
+			lanes = new int[capacity];
+			values = new int[capacity];
+			squares = new long[capacity+1];
+		}
+		int first = -1;
+		int lane = LEADING;
+		for (int i = 0; i < length; i++) {
+			int curr = s.getChunkAt(i);
+			if (curr >= 0 && curr < HOLD) {
+				if (first < 0)
+					first = curr;
+				lane = curr % NUM_NOTES_PER_OCTAVE;
+			}
+			lanes[i] = lane;
+			values[i] = TRANSPOSE[0][lane];
+			squares[i+1] = squares[i] + (long)values[i] * values[i];
+		}
+		firstNote = first;
+	}
+
+	public int length() {return length;}
+	public int getFirstNote() {return firstNote;}
+	public int getLaneAt(int i) {return lanes[i];}
+	public int getValueAt(int i) {return values[i];}
+
+	// Table mapping lane codes to their values after transposing by @shift semitones; must not be modified
+	static int[] transposeTable(int shift) {return TRANSPOSE[shift];}
+
+	// Untransposed lane values; shared, must not be modified
+	int[] values() {return values;}
+
+	// Writes the lane values after transposing by @shift semitones into @dest
+	public void transposeInto(int shift, int[] dest) {
+		int[] transpose = TRANSPOSE[shift];
+		for (int i = 0; i < length; i++)
+			dest[i] = transpose[lanes[i]];
+	}
+
+	// Sum of squared values over the first @n chunks
+	public long normSquared(int n) {return squares[n];}
+
+	// Semitones (mod 12) that transpose the first note of @candidate onto the first note of this piece
+	public int shiftFor(PitchProfile candidate) {
+		if (firstNote < 0 || candidate.firstNote < 0)
+			return 0;
+		return Math.floorMod(firstNote - candidate.firstNote, NUM_NOTES_PER_OCTAVE);
+	}
+
+	/* Cosine similarity between this (original) piece and @candidate transposed to start on the same
+	 * pitch class, over their common length.
+	 */
+	public double similarity(PitchProfile candidate) {
+		int[] transpose = TRANSPOSE[shiftFor(candidate)];
+		int n = Math.min(length, candidate.length);
+		int[] a = candidate.lanes;
+		int[] b = values;
+		long dot = 0;
+		long magA = 0;
+		for (int i = 0; i < n; i++) {
+			int x = transpose[a[i]];
+			dot += x * b[i];
+			magA += x * x;
+		}
+		return dot / Math.sqrt((double)magA * squares[n]);
+	}
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Evolves a polyphonic variation: one MusicGeneticAlgorithm per voice, each on the matching voice of
+ * every original piece, all run at the same time on a pool of threads.
+ * The voices are evolved in rounds. During a round every voice is accompanied by the best of each
+ * other voice from the end of the previous round (see MusicGeneticAlgorithm.setAccompaniment), and a
+ * share of its fitness is its consonance with them, so the voices come to fit together.
+ *
+ * Usage: java PolyphonicGA [rounds=20] [generations=10] [threads=4] [weight=0.3] score ...
+ * Each score is read with Driver.readVoices and all must have the same number of voices.
+ */
+public class PolyphonicGA {
+	private MusicGeneticAlgorithm[] voices;
+	private double weight;
+	private int chunkSize;
+
+	/* Evolves @pieces, which must have the same number of voices, with @config for every voice.
+	 * @weight of each voice's fitness goes to consonance with the other voices.
+	 */
+	public PolyphonicGA(List<PolyphonicSelection> pieces, GAConfig config, long seed, double weight) {
+		int n = pieces.get(0).voices();
+		for (PolyphonicSelection p : pieces)
+			if (p.voices() != n)
+				throw new IllegalArgumentException("Pieces have " + n + " and " + p.voices() + " voices");
+		this.weight = weight;
+		// All voices share one chunk size, so that they can be compared and combined chunk by chunk
+		ArrayList<MusicSelection> all = new ArrayList<MusicSelection>();
+		for (PolyphonicSelection p : pieces)
+			for (int v = 0; v < n; v++)
+				all.add(p.getVoice(v));
+		chunkSize = MusicGeneticAlgorithm.commonChunkSize(all);
+		voices = new MusicGeneticAlgorithm[n];
+		for (int v = 0; v < n; v++) {
+			ArrayList<MusicSelection> parts = new ArrayList<MusicSelection>(pieces.size());
+			for (PolyphonicSelection p : pieces) {
+				MusicSelection part = p.getVoice(v);
+				MusicGeneticAlgorithm.equalize(part, chunkSize);
+				parts.add(part);
+			}
+			voices[v] = new MusicGeneticAlgorithm(new OriginalSet(parts), config, seed + v);
+		}
+	}
+
+	/* Runs @rounds rounds of @generations generations per voice, with at most @threads voices at a time.
+	 * Each voice runs sequentially on its own thread; the result depends only on the seed.
+	 */
+	public void runAlgorithm(int rounds, int generations, int threads) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, voices.length));
+		try {
+			for (int r = 0; r < rounds; r++) {
+				accompany();
+				ArrayList<Future<Void>> running = new ArrayList<Future<Void>>(voices.length);
+				for (MusicGeneticAlgorithm g : voices)
+					running.add(pool.submit(() -> {
+						g.runAlgorithm(generations);
+						return null;
+					}));
+				for (Future<Void> f : running)
+					f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new java.io.InterruptedIOException("Polyphonic run interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IllegalStateException("Voice failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Makes the current best of all voices the accompaniment of each
+	private void accompany() {
+		PolyphonicSelection best = getBestPiece();
+		for (int v = 0; v < voices.length; v++)
+			voices[v].setAccompaniment(new Accompaniment(best, v), weight);
+	}
+
+	// The best individual of every voice, as one score
+	public PolyphonicSelection getBestPiece() {
+		ArrayList<MusicSelection> parts = new ArrayList<MusicSelection>(voices.length);
+		for (MusicGeneticAlgorithm g : voices)
+			parts.add(g.getBestPiece());
+		return new PolyphonicSelection(parts);
+	}
+
+	public MusicGeneticAlgorithm getVoice(int v) {return voices[v];}
+	public int voices() {return voices.length;}
+	public int getChunkSize() {return chunkSize;}
+
+	public static void main(String args[]) throws IOException {
+		int rounds = 20;
+		int generations = 10;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double weight = 0.3;
+		ArrayList<PolyphonicSelection> pieces = new ArrayList<PolyphonicSelection>();
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			if (kv.length < 2)
+				pieces.add(PolyphonicSelection.read(arg));
+			else if (kv[0].equals("rounds"))
+				rounds = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("generations"))
+				generations = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("threads"))
+				threads = Integer.parseInt(kv[1]);
+			else if (kv[0].equals("weight"))
+				weight = Double.parseDouble(kv[1]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + arg);
+		}
+		if (pieces.isEmpty())
+			throw new IllegalArgumentException("No scores given");
+
+		long startTime = System.currentTimeMillis();
+		PolyphonicGA g = new PolyphonicGA(pieces, new GAConfig(), 123456, weight);
+		g.runAlgorithm(rounds, generations, threads);
+		PolyphonicSelection best = g.getBestPiece();
+		System.out.println("Best result:\n" + best);
+		for (int v = 0; v < g.voices(); v++) {
+			MusicGeneticAlgorithm voice = g.getVoice(v);
+			MusicSelection part = voice.getBestPiece();
+			System.out.println("Voice " + (v + 1) + ": " + voice.fitnessOrig(part) + ", " + voice.fitness(part));
+		}
+		System.out.println("Consonance: " + best.consonance());
+		best.generateMIDI("Polyphonic variant", "variant.mid");
+		System.out.println("total time taken: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+	}
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.util.*;
+
+/*
+ * A score of several voices sounding together, all at the same chunk size and length.
+ * The voices are lanes of one array: chunk i of voice v is at v*length + i, so a pass over time reads
+ * every lane sequentially. Voices shorter than the longest are padded with a rest held to the end.
+ * Each voice can be taken out as a MusicSelection to be evolved on its own (see PolyphonicGA).
+ */
+public class PolyphonicSelection {
+	private static final int HOLD = 128;
+	private static final int REST = 129;
+	// Intervals in semitones, modulo the octave, that count as consonant: unison, thirds, fourth, fifth, sixths
+	private static final boolean[] CONSONANT = {true, false, false, true, true, true, false, true, true, true, false, false};
+	// CONSONANT for every difference between two pitches, offset by 127, so pairs are looked up without division
+	private static final boolean[] CONSONANT_DIFFERENCE = new boolean[255];
+	static {
+		for (int d = -127; d <= 127; d++)
+			CONSONANT_DIFFERENCE[d + 127] = CONSONANT[Math.abs(d) % 12];
+	}
+
+	private short[] lanes;
+	private int voices;
+	private int length;
+	private int chunkSize;
+
+	/* Combines copies of @parts, one per voice, equalized to their common chunk size.
+	 * @parts themselves are not modified.
+	 */
+	public PolyphonicSelection(List<MusicSelection> parts) {
+		if (parts.isEmpty())
+			throw new IllegalArgumentException("A score needs at least one voice");
+		chunkSize = MusicGeneticAlgorithm.commonChunkSize(parts);
+		ArrayList<MusicSelection> equalized = new ArrayList<MusicSelection>(parts.size());
+		for (MusicSelection part : parts) {
+			MusicSelection copy = new MusicSelection(part.absolute());
+			MusicGeneticAlgorithm.equalize(copy, chunkSize);
+			equalized.add(copy);
+			length = Math.max(length, copy.length());
+		}
+		voices = parts.size();
+		lanes = new short[voices * length];
+		for (int v = 0; v < voices; v++)
+			setVoice(v, equalized.get(v));
+	}
+
+	// Reads a score of one or more voices (see Driver.readVoices)
+	public static PolyphonicSelection read(String filename) throws IOException {
+		return new PolyphonicSelection(Driver.readVoices(filename));
+	}
+
+	public int voices() {return voices;}
+	public int length() {return length;}
+	public int getChunkSize() {return chunkSize;}
+	public int getChunkAt(int voice, int index) {return lanes[voice * length + index];}
+	public void setChunkAt(int voice, int index, int value) {lanes[voice * length + index] = (short)value;}
+
+	// A copy of voice @v
+	public MusicSelection getVoice(int v) {
+		return new MusicSelection(Arrays.copyOfRange(lanes, v * length, (v + 1) * length), length, chunkSize);
+	}
+
+	/* Replaces voice @v with @s, which must have this score's chunk size. Only the first length()
+	 * chunks are taken; a shorter @s is padded with a held rest.
+	 */
+	public void setVoice(int v, MusicSelection s) {
+		if (s.getChunkSize() != chunkSize)
+			throw new IllegalArgumentException("Voice has chunk size " + s.getChunkSize() + ", score has " + chunkSize);
+		int base = v * length;
+		int n = Math.min(length, s.length());
+		for (int i = 0; i < n; i++)
+			lanes[base + i] = (short)s.getChunkAt(i);
+		for (int i = n; i < length; i++)
+			lanes[base + i] = (short)(i == 0 || i == n ? REST : HOLD);
+	}
+
+	/* Pitches sounding in each voice at each chunk, with holds resolved, in the same layout as the
+	 * chunks; -1 where a voice is silent.
+	 */
+	public int[] soundingPitches() {
+		int[] pitches = new int[lanes.length];
+		for (int v = 0; v < voices; v++) {
+			int current = -1;
+			for (int i = v * length; i < (v + 1) * length; i++) {
+				int c = lanes[i];
+				if (c == REST)
+					current = -1;
+				else if (c != HOLD)
+					current = c;
+				pitches[i] = current;
+			}
+		}
+		return pitches;
+	}
+
+	/* Fraction of consonant intervals among all pairs of voices sounding at the same time, in a single
+	 * pass over time. 1 if no two voices ever sound together.
+	 */
+	public double consonance() {
+		int[] pitches = soundingPitches();
+		int pairs = 0;
+		int consonant = 0;
+		for (int i = 0; i < length; i++)
+			for (int v = 0; v < voices; v++) {
+				int p = pitches[v * length + i];
+				if (p < 0)
+					continue;
+				for (int w = v + 1; w < voices; w++) {
+					int q = pitches[w * length + i];
+					if (q < 0)
+						continue;
+					pairs++;
+					if (isConsonant(p, q))
+						consonant++;
+				}
+			}
+		return pairs == 0 ? 1 : (double)consonant / pairs;
+	}
+
+	static boolean isConsonant(int p, int q) {return CONSONANT_DIFFERENCE[p - q + 127];}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (int v = 0; v < voices; v++)
+			s.append(v == 0 ? "" : "\n").append(Arrays.toString(Arrays.copyOfRange(lanes, v * length, (v + 1) * length)));
+		return s.toString();
+	}
+
+	// Writes the score as a MIDI file with one track per voice
+	public void generateMIDI(String songName, String destination) throws IOException {
+		MIDIWorkshop.write(this, songName, destination);
+	}
+}
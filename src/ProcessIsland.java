@@ -0,0 +1,143 @@
+import java.io.*;
+import java.util.*;
+
+/*
+ * Island running in a separate JVM on the same host.
+ * The child process is started with the classpath of this one and runs main() below. The two sides
+ * talk over the child's stdin/stdout: each request is a one byte command followed by its arguments,
+ * and each reply is either an acknowledgement or a list of pieces.
+ * Pieces are sent as chunk size, length, whether they are relative and then the chunk values.
+ */
+public class ProcessIsland implements Island {
+	private static final byte ORIGINALS = 'O';
+	private static final byte EVOLVE = 'E';
+	private static final byte EMIGRANTS = 'T';
+	private static final byte IMMIGRANTS = 'I';
+	private static final byte BEST = 'B';
+	private static final byte QUIT = 'Q';
+	private static final byte OK = 'K';
+
+	private Process process;
+	private DataOutputStream out;
+	private DataInputStream in;
+
+	// Starts a worker JVM and sends it the original pieces it evolves against
+	public ProcessIsland(ArrayList<MusicSelection> pieces, long seed) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				"ProcessIsland", Long.toString(seed));
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		process = pb.start();
+		out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		out.writeByte(ORIGINALS);
+		writeSelections(out, pieces);
+		awaitOk();
+	}
+
+	public void evolve(int numSteps) throws IOException {
+		out.writeByte(EVOLVE);
+		out.writeInt(numSteps);
+		awaitOk();
+	}
+
+	public ArrayList<MusicSelection> emigrants(int k) throws IOException {
+		out.writeByte(EMIGRANTS);
+		out.writeInt(k);
+		out.flush();
+		return readSelections(in);
+	}
+
+	public void immigrate(List<MusicSelection> migrants) throws IOException {
+		out.writeByte(IMMIGRANTS);
+		writeSelections(out, migrants);
+		awaitOk();
+	}
+
+	public MusicSelection getBestPiece() throws IOException {
+		out.writeByte(BEST);
+		out.flush();
+		return readSelections(in).get(0);
+	}
+
+	public void close() throws IOException {
+		out.writeByte(QUIT);
+		out.flush();
+		try {
+			process.waitFor();
+		} catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void awaitOk() throws IOException {
+		out.flush();
+		byte reply = in.readByte();
+		if (reply != OK)
+			throw new IOException("Unexpected reply from island worker: " + reply);
+	}
+
+	public static void writeSelections(DataOutputStream out, List<MusicSelection> pieces) throws IOException {
+		out.writeInt(pieces.size());
+		for (MusicSelection s : pieces) {
+			out.writeInt(s.getChunkSize());
+			out.writeInt(s.length());
+			out.writeBoolean(s.isRelative());
+			for (int i = 0; i < s.length(); i++)
+				out.writeShort(s.getChunkAt(i));
+		}
+	}
+
+	public static ArrayList<MusicSelection> readSelections(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		ArrayList<MusicSelection> pieces = new ArrayList<MusicSelection>(n);
+		for (int j = 0; j < n; j++) {
+			int chunkSize = in.readInt();
+			int length = in.readInt();
+			boolean relative = in.readBoolean();
+			short[] chunks = new short[length];
+			for (int i = 0; i < length; i++)
+				chunks[i] = in.readShort();
+			pieces.add(new MusicSelection(chunks, length, chunkSize, relative));
+		}
+		return pieces;
+	}
+
+	// Worker side: serves requests from the parent process until told to quit
+	public static void main(String args[]) throws IOException {
+		long seed = Long.parseLong(args[0]);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+		MusicGeneticAlgorithm ga = null;
+		while (true) {
+			byte command = in.readByte();
+			switch (command) {
+			case ORIGINALS:
+				ga = new MusicGeneticAlgorithm(readSelections(in), seed);
+				out.writeByte(OK);
+				break;
+			case EVOLVE:
+				ga.runAlgorithm(in.readInt());
+				out.writeByte(OK);
+				break;
+			case EMIGRANTS:
+				writeSelections(out, ga.getTopIndividuals(in.readInt()));
+				break;
+			case IMMIGRANTS:
+				ga.acceptMigrants(readSelections(in));
+				out.writeByte(OK);
+				break;
+			case BEST:
+				writeSelections(out, Collections.singletonList(ga.getBestPiece()));
+				break;
+			case QUIT:
+				out.flush();
+				return;
+			default:
+				throw new IOException("Unknown island command: " + command);
+			}
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import javax.sound.midi.*;
+
+/*
+ * Regression checks for behaviour that has been broken before. Each check compares a result with the
+ * expected one and reports the difference; the exit status is the number of failed checks.
+ *
+ * Usage: java RegressionChecks
+ */
+public class RegressionChecks {
+	private static final int HOLD = 128;
+	private static final int REST = 129;
+
+	private static int failures;
+
+	public static void main(String args[]) {
+		// Rests sounding at a target chunk boundary stay rests instead of lengthening the note before them
+		checkEqualize(new int[] {60, REST, HOLD, HOLD}, 16, 8, new int[] {60, REST});
+		checkEqualize(new int[] {60, REST, HOLD, HOLD, 62, HOLD}, 6, 4, new int[] {60, REST, 62, HOLD});
+		// Upsampling and notes starting within a target chunk
+		checkEqualize(new int[] {60, REST, 62}, 4, 8, new int[] {60, HOLD, REST, HOLD, 62, HOLD});
+		checkEqualize(new int[] {60, 62, HOLD, 64}, 8, 4, new int[] {60, 64});
+		// MIDI time stays exact for chunk sizes that do not divide a whole note evenly
+		checkMidiLength(24, 400);
+		checkMidiLength(48, 400);
+		checkMidiLength(16, 400);
+		// Relative crossover keeps the pitch of whichever note becomes, or stops being, the first note
+		checkSplice(new int[] {60, HOLD, 62, 64, 65, 67}, new int[] {REST, 48, 50, 52, 53, 55}, 0, 1,
+				new int[] {REST, HOLD, 62, 64, 65, 67});
+		checkSplice(new int[] {REST, 58, 60, 62, 63, 65}, new int[] {60, HOLD, 62, 64, 65, 67}, 0, 1,
+				new int[] {60, 58, 60, 62, 63, 65});
+		checkSplice(new int[] {60, 62, 64, 65, 67, 69}, new int[] {REST, REST, 58, 60, 62, 63}, 1, 4,
+				new int[] {60, REST, 58, 60, 62, 64});
+		checkSplice(new int[] {60, HOLD, HOLD, 64}, new int[] {REST, REST, HOLD, 50}, 0, 2,
+				new int[] {REST, REST, HOLD, 64});
+		// A hold turned into a rest before any note leaves a rest, not pitch 0, in relative selections
+		checkRestMutation(new int[] {REST, HOLD, HOLD, REST}, new int[] {REST, REST, HOLD, HOLD});
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		System.exit(failures);
+	}
+
+	// MusicGeneticAlgorithm.equalize() of @chunks from @from to @to chunks per whole note gives @expected
+	private static void checkEqualize(int[] chunks, int from, int to, int[] expected) {
+		short[] values = new short[chunks.length];
+		for (int i = 0; i < chunks.length; i++)
+			values[i] = (short)chunks[i];
+		MusicSelection s = new MusicSelection(values, values.length, from);
+		MusicGeneticAlgorithm.equalize(s, to);
+		short[] wanted = new short[expected.length];
+		for (int i = 0; i < expected.length; i++)
+			wanted[i] = (short)expected[i];
+		check("equalize " + Arrays.toString(chunks) + " " + from + "->" + to,
+				Arrays.equals(s.getChunks(), wanted), Arrays.toString(s.getChunks()), Arrays.toString(wanted));
+	}
+
+	// A whole note of chunk size @chunkSize, i.e. a note held for @chunkSize chunks, lasts @expected midi units
+	private static void checkMidiLength(int chunkSize, long expected) {
+		short[] values = new short[chunkSize];
+		Arrays.fill(values, (short)HOLD);
+		values[0] = 60;
+		ByteBuffer encoded = MIDIWorkshop.encode(new MusicSelection(values, chunkSize, chunkSize), "check", null);
+		byte[] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		long on = -1;
+		long off = -1;
+		try {
+			for (Track track : MidiSystem.getSequence(new ByteArrayInputStream(bytes)).getTracks())
+				for (int i = 0; i < track.size(); i++) {
+					MidiEvent e = track.get(i);
+					if (!(e.getMessage() instanceof ShortMessage))
+						continue;
+					int command = ((ShortMessage)e.getMessage()).getCommand();
+					if (command == ShortMessage.NOTE_ON)
+						on = e.getTick();
+					else if (command == ShortMessage.NOTE_OFF)
+						off = e.getTick();
+				}
+		} catch (Exception e) {
+			check("MIDI of chunk size " + chunkSize, false, e.toString(), "a readable file");
+			return;
+		}
+		check("MIDI whole note at chunk size " + chunkSize, off - on == expected, Long.toString(off - on), Long.toString(expected));
+	}
+
+	// Relative @target with chunks [@from, @to) copied from relative @source, both given as pitches, has pitches @expected
+	private static void checkSplice(int[] target, int[] source, int from, int to, int[] expected) {
+		MusicSelection t = relative(target);
+		t.copyRange(relative(source), from, to);
+		t.check();
+		check("copyRange " + Arrays.toString(source) + " [" + from + ", " + to + ") into " + Arrays.toString(target),
+				Arrays.equals(t.toAbsolute(), shorts(expected)), Arrays.toString(t.toAbsolute()), Arrays.toString(expected));
+	}
+
+	/* mutate() of @chunks, as absolute and as relative, gives pitches @expected when every chunk is
+	 * mutated and every hold becomes a rest and every rest a hold
+	 */
+	private static void checkRestMutation(int[] chunks, int[] expected) {
+		ArrayList<MusicSelection> originals = new ArrayList<MusicSelection>();
+		originals.add(new MusicSelection(shorts(new int[] {60, 62, 64, 65}), 4, 4));
+		MusicGeneticAlgorithm g = new MusicGeneticAlgorithm(originals);
+		long high = (long)(0.9 * (1L << 53)) << 11; // every nextDouble() is 0.9
+		for (boolean rel : new boolean[] {false, true}) {
+			MusicSelection s = new MusicSelection(shorts(chunks), chunks.length, 4);
+			if (rel)
+				s.toRelative();
+			g.mutate(s, 1, () -> high);
+			check("mutate " + (rel ? "relative " : "") + Arrays.toString(chunks),
+					Arrays.equals(s.toAbsolute(), shorts(expected)), Arrays.toString(s.toAbsolute()), Arrays.toString(expected));
+		}
+	}
+
+	private static MusicSelection relative(int[] pitches) {
+		short[] values = shorts(pitches);
+		MusicSelection s = new MusicSelection(values, values.length, 4);
+		s.toRelative();
+		return s;
+	}
+
+	private static short[] shorts(int[] values) {
+		short[] s = new short[values.length];
+		for (int i = 0; i < values.length; i++)
+			s[i] = (short)values[i];
+		return s;
+	}
+
+	private static void check(String name, boolean passed, String actual, String expected) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED " + name + ": got " + actual + ", expected " + expected);
+	}
+}
@@ -0,0 +1,138 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * Preprocessed collection of scores, all equalized to one chunk size, stored in a single binary file.
+ * Layout (big-endian):
+ *   header: magic "MGAC", format version, chunk size, number of pieces
+ *   index:  for each piece, the offset of its chunks from the start of the data and its length
+ *   data:   the chunks of every piece, one unsigned byte each (0-127 notes, 128 hold, 129 rest)
+ * The file is memory-mapped when opened, so opening costs the same however many pieces it holds;
+ * a piece's chunks are only read when that piece is requested.
+ *
+ * Usage: java ScoreCorpus files.txt corpus.bin [chunkSize]
+ * builds corpus.bin from the scores listed in files.txt, by default at the least common multiple of their chunk sizes.
+ */
+public class ScoreCorpus {
+	private static final int MAGIC = 0x4D474143; // "MGAC"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+	private static final int INDEX_ENTRY_BYTES = 8;
+
+	private MappedByteBuffer buffer;
+	private int chunkSize;
+	private int size;
+	private int dataStart;
+
+	// Maps the corpus file @filename
+	public ScoreCorpus(String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+				throw new IOException(filename + " is not a score corpus");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt(0) != MAGIC)
+			throw new IOException(filename + " is not a score corpus");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException(filename + " has unsupported corpus version " + buffer.getInt(4));
+		chunkSize = buffer.getInt(8);
+		size = buffer.getInt(12);
+		dataStart = HEADER_BYTES + size * INDEX_ENTRY_BYTES;
+		if (size < 0 || dataStart > buffer.capacity())
+			throw new IOException(filename + " has a truncated index");
+	}
+
+	// True if @filename starts like a corpus file, as opposed to e.g. a list of score files
+	public static boolean isCorpus(String filename) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	public int size() {return size;}
+
+	public int getChunkSize() {return chunkSize;}
+
+	// Number of chunks of piece @i
+	public int length(int i) {return buffer.getInt(indexOf(i) + 4);}
+
+	// Value of chunk @j of piece @i, read straight from the mapped file
+	public int getChunkAt(int i, int j) {
+		return buffer.get(dataStart + buffer.getInt(indexOf(i)) + j) & 0xFF;
+	}
+
+	// Piece @i as a new MusicSelection
+	public MusicSelection get(int i) {
+		int offset = dataStart + buffer.getInt(indexOf(i));
+		int length = length(i);
+		byte[] packed = new byte[length];
+		buffer.get(offset, packed);
+		short[] chunks = new short[length];
+		for (int j = 0; j < length; j++)
+			chunks[j] = (short)(packed[j] & 0xFF);
+		return new MusicSelection(chunks, length, chunkSize);
+	}
+
+	// All pieces, in corpus order
+	public ArrayList<MusicSelection> pieces() {
+		ArrayList<MusicSelection> pieces = new ArrayList<MusicSelection>(size);
+		for (int i = 0; i < size; i++)
+			pieces.add(get(i));
+		return pieces;
+	}
+
+	private int indexOf(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Piece " + i + " of " + size);
+		return HEADER_BYTES + i * INDEX_ENTRY_BYTES;
+	}
+
+	// Writes @pieces to the corpus file @destination, each equalized to @targetChunkSize. The pieces themselves are not modified.
+	public static void write(List<MusicSelection> pieces, int targetChunkSize, String destination) throws IOException {
+		ArrayList<MusicSelection> equalized = new ArrayList<MusicSelection>(pieces.size());
+		long dataBytes = 0;
+		for (MusicSelection s : pieces) {
+			MusicSelection copy = new MusicSelection(s);
+			MusicGeneticAlgorithm.equalize(copy, targetChunkSize);
+			equalized.add(copy);
+			dataBytes += copy.length();
+		}
+		long total = HEADER_BYTES + (long)pieces.size() * INDEX_ENTRY_BYTES + dataBytes;
+		if (total > Integer.MAX_VALUE)
+			throw new IOException("Corpus of " + total + " bytes is too large to map");
+
+		ByteBuffer out = ByteBuffer.allocate((int)total);
+		out.putInt(MAGIC).putInt(VERSION).putInt(targetChunkSize).putInt(pieces.size());
+		int offset = 0;
+		for (MusicSelection s : equalized) {
+			out.putInt(offset).putInt(s.length());
+			offset += s.length();
+		}
+		for (MusicSelection s : equalized)
+			for (int j = 0; j < s.length(); j++)
+				out.put((byte)s.getChunkAt(j));
+		out.flip();
+		try (FileChannel channel = FileChannel.open(Paths.get(destination), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (out.hasRemaining())
+				channel.write(out);
+		}
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java ScoreCorpus <file list> <corpus file> [chunk size]");
+			System.exit(1);
+		}
+		ArrayList<MusicSelection> pieces = Driver.readPieces(args[0]);
+		int targetChunkSize = args.length > 2 ? Integer.parseInt(args[2]) : MusicGeneticAlgorithm.commonChunkSize(pieces);
+		write(pieces, targetChunkSize, args[1]);
+		System.out.println("Wrote " + pieces.size() + " pieces at chunk size " + targetChunkSize + " to " + args[1]);
+	}
+}
@@ -0,0 +1,254 @@
+import java.util.Arrays;
+
+/*
+ * Running terms of the cosine similarity between one individual and each original piece, kept with
+ * the individual so that edits can be rescored incrementally.
+ * For every original the state holds the dot product and the candidate's squared norm over their
+ * common length, together with the candidate's hold-resolved pitch-class lanes.
+ * setChunkAt() and copyRange() record which ranges changed. update() then only revisits each changed
+ * range up to the next note, since lanes from a note onward do not depend on earlier chunks, and
+ * adjusts the terms by the difference. Changes at or before the first note alter the transposition
+ * of the whole piece and force a full recomputation.
+ */
+public class ScoreState {
+	private static final int MAX_DIRTY_RANGES = 16;
+
+	private PitchProfile[] originals; // originals the terms were computed against
+	private int[] lanes;
+	private int length;
+	private int firstNoteIndex; // -1 if there is no note
+	private int[] shifts;
+	private long[] dots;
+	private long[] mags;
+
+	// Changed ranges [dirtyFrom[k], dirtyTo[k]) since the last update
+	private int[] dirtyFrom = new int[MAX_DIRTY_RANGES];
+	private int[] dirtyTo = new int[MAX_DIRTY_RANGES];
+	private int numDirty;
+	private boolean rebuild;
+
+	// Scratch space of update()
+	private int[] spanFrom;
+	private int[] spanTo;
+	private int[] changed;
+
+	private ScoreState() {}
+
+	public ScoreState copy() {
+		ScoreState c = new ScoreState();
+		c.originals = originals;
+		c.lanes = Arrays.copyOf(lanes, length);
+		c.length = length;
+		c.firstNoteIndex = firstNoteIndex;
+		c.shifts = shifts.clone();
+		c.dots = dots.clone();
+		c.mags = mags.clone();
+		c.dirtyFrom = dirtyFrom.clone();
+		c.dirtyTo = dirtyTo.clone();
+		c.numDirty = numDirty;
+		c.rebuild = rebuild;
+		return c;
+	}
+
+	// Makes this state a copy of @orig, reusing its arrays where they are large enough
+	public void copyFrom(ScoreState orig) {
+		originals = orig.originals;
+		if (lanes == null || lanes.length < orig.length)
+			lanes = new int[Math.max(orig.length, lanes == null ? 0 : lanes.length + lanes.length/2)];
+		System.arraycopy(orig.lanes, 0, lanes, 0, orig.length);
+		length = orig.length;
+		firstNoteIndex = orig.firstNoteIndex;
+		if (dots == null || dots.length != orig.dots.length) {
+			shifts = new int[orig.shifts.length];
+			dots = new long[orig.dots.length];
+			mags = new long[orig.mags.length];
+		}
+		System.arraycopy(orig.shifts, 0, shifts, 0, shifts.length);
+		System.arraycopy(orig.dots, 0, dots, 0, dots.length);
+		System.arraycopy(orig.mags, 0, mags, 0, mags.length);
+		System.arraycopy(orig.dirtyFrom, 0, dirtyFrom, 0, orig.numDirty);
+		System.arraycopy(orig.dirtyTo, 0, dirtyTo, 0, orig.numDirty);
+		numDirty = orig.numDirty;
+		rebuild = orig.rebuild;
+	}
+
+	// Records that chunks [@from, @to) changed
+	public void markDirty(int from, int to) {
+		if (rebuild)
+			return;
+		if (numDirty == MAX_DIRTY_RANGES) {
+			rebuild = true;
+			return;
+		}
+		dirtyFrom[numDirty] = from;
+		dirtyTo[numDirty] = to;
+		numDirty++;
+	}
+
+	// Computes all terms of @s against @originals from scratch and writes the similarities into @out
+	public static ScoreState compute(MusicSelection s, PitchProfile[] originals, double[] out) {
+		ScoreState state = new ScoreState();
+		state.recompute(s, originals, out);
+		return state;
+	}
+
+	// As compute(), but into this state, reusing its arrays
+	public void recompute(MusicSelection s, PitchProfile[] originals, double[] out) {
+		PitchProfile candidate = SimilarityKernel.get().profile(s);
+		this.originals = originals;
+		length = candidate.length();
+		if (lanes == null || lanes.length < length)
+			lanes = new int[Math.max(length, lanes == null ? 0 : lanes.length + lanes.length/2)];
+		firstNoteIndex = -1;
+		for (int i = 0; i < length; i++) {
+			lanes[i] = candidate.getLaneAt(i);
+			if (firstNoteIndex < 0 && lanes[i] != PitchProfile.LEADING)
+				firstNoteIndex = i;
+		}
+		if (dots == null || dots.length != originals.length) {
+			shifts = new int[originals.length];
+			dots = new long[originals.length];
+			mags = new long[originals.length];
+		}
+		numDirty = 0;
+		rebuild = false;
+		for (int j = 0; j < originals.length; j++)
+			shifts[j] = originals[j].shiftFor(candidate);
+
+		if (SimilarityKernel.ENABLED)
+			SimilarityKernel.get().score(candidate, originals, out, dots, mags);
+		else {
+			for (int j = 0; j < originals.length; j++) {
+				int[] transpose = PitchProfile.transposeTable(shifts[j]);
+				int n = Math.min(length, originals[j].length());
+				long dot = 0;
+				long mag = 0;
+				for (int i = 0; i < n; i++) {
+					int x = transpose[lanes[i]];
+					dot += x * originals[j].getValueAt(i);
+					mag += x * x;
+				}
+				dots[j] = dot;
+				mags[j] = mag;
+			}
+			similarities(out);
+		}
+	}
+
+	/* Brings the terms up to date with the current chunks of @s and writes the similarities into @out.
+	 * Returns false, leaving the state unusable, if the changes require a full recomputation.
+	 */
+	public boolean update(MusicSelection s, PitchProfile[] against, double[] out) {
+		if (against != originals || rebuild || firstNoteIndex < 0)
+			return false;
+		int newLength = s.length();
+		int minLength = Math.min(length, newLength);
+
+		// Sorts the changed ranges and extends each to the next note, merging ranges that overlap
+		sortDirty();
+		if (spanFrom == null) {
+			spanFrom = new int[MAX_DIRTY_RANGES+1];
+			spanTo = new int[MAX_DIRTY_RANGES+1];
+		}
+		int numSpans = 0;
+		for (int k = 0; k < numDirty; k++) {
+			int from = dirtyFrom[k];
+			if (from >= minLength)
+				continue;
+			int end = Math.min(dirtyTo[k], newLength);
+			while (end < newLength && !s.isNote(s.getChunkAt(end)))
+				end++;
+			if (numSpans > 0 && from <= spanTo[numSpans-1])
+				spanTo[numSpans-1] = Math.max(spanTo[numSpans-1], end);
+			else {
+				spanFrom[numSpans] = from;
+				spanTo[numSpans] = end;
+				numSpans++;
+			}
+		}
+		// A length change is handled by a last span running to the end of both the old and new chunks
+		boolean resized = (newLength != length);
+		if (resized && (numSpans == 0 || spanTo[numSpans-1] < minLength)) {
+			spanFrom[numSpans] = minLength;
+			numSpans++;
+		}
+		int maxLength = Math.max(length, newLength);
+		int total = 0;
+		int longest = 0;
+		for (int k = 0; k < numSpans; k++) {
+			if (spanFrom[k] <= firstNoteIndex)
+				return false;
+			int end = (resized && k == numSpans-1) ? maxLength : spanTo[k];
+			total += end - spanFrom[k];
+			longest = Math.max(longest, end - spanFrom[k]);
+		}
+		// Past this point the vectorized full computation is cheaper
+		if (total > newLength / 2)
+			return false;
+
+		if (lanes.length < newLength)
+			lanes = Arrays.copyOf(lanes, Math.max(newLength, lanes.length*2));
+		if (changed == null || changed.length < longest)
+			changed = new int[Math.max(longest, 64)];
+		for (int k = 0; k < numSpans; k++) {
+			int from = spanFrom[k];
+			boolean tail = (resized && k == numSpans-1);
+			int oldEnd = tail ? length : spanTo[k];
+			int newEnd = tail ? newLength : spanTo[k];
+
+			// New lanes of the span, carrying the note sounding just before it
+			int lane = lanes[from-1];
+			for (int i = from; i < newEnd; i++) {
+				int curr = s.getChunkAt(i);
+				if (s.isNote(curr))
+					lane = curr % PitchProfile.NUM_NOTES_PER_OCTAVE;
+				changed[i-from] = lane;
+			}
+			for (int j = 0; j < originals.length; j++) {
+				int[] transpose = PitchProfile.transposeTable(shifts[j]);
+				int m = originals[j].length();
+				long dot = dots[j];
+				long mag = mags[j];
+				for (int i = from; i < Math.min(oldEnd, m); i++) {
+					int x = transpose[lanes[i]];
+					dot -= x * originals[j].getValueAt(i);
+					mag -= x * x;
+				}
+				for (int i = from; i < Math.min(newEnd, m); i++) {
+					int x = transpose[changed[i-from]];
+					dot += x * originals[j].getValueAt(i);
+					mag += x * x;
+				}
+				dots[j] = dot;
+				mags[j] = mag;
+			}
+			System.arraycopy(changed, 0, lanes, from, newEnd-from);
+		}
+		length = newLength;
+		numDirty = 0;
+		similarities(out);
+		return true;
+	}
+
+	// Writes the similarity to each original into @out
+	public void similarities(double[] out) {
+		for (int j = 0; j < originals.length; j++) {
+			int n = Math.min(length, originals[j].length());
+			out[j] = dots[j] / Math.sqrt((double)mags[j] * originals[j].normSquared(n));
+		}
+	}
+
+	private void sortDirty() {
+		for (int k = 1; k < numDirty; k++) {
+			int from = dirtyFrom[k];
+			int to = dirtyTo[k];
+			int m = k-1;
+			for (; m >= 0 && dirtyFrom[m] > from; m--) {
+				dirtyFrom[m+1] = dirtyFrom[m];
+				dirtyTo[m+1] = dirtyTo[m];
+			}
+			dirtyFrom[m+1] = from;
+			dirtyTo[m+1] = to;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Batch scoring of one candidate against all original pieces, written for the JIT's auto-vectorizer.
+ * PitchProfile.similarity() transposes through a table lookup inside its reduction loop, which keeps
+ * the loop scalar. Here the candidate's transposed values are first written out once per distinct
+ * transposition (at most 12 per candidate), after which dot product and norm are plain int
+ * multiply-add reductions over two arrays that C2 compiles to SIMD instructions.
+ * Integer sums are exact, so the results are bit-identical to PitchProfile.similarity(), which
+ * remains the scalar fallback (-Dmga.kernel=scalar).
+ */
+public class SimilarityKernel {
+	public static final boolean ENABLED = !"scalar".equals(System.getProperty("mga.kernel"));
+
+	// Chunks per partial sum; 65536 * 129 * 129 still fits in an int
+	private static final int BLOCK = 1 << 16;
+
+	private static final ThreadLocal<SimilarityKernel> LOCAL = ThreadLocal.withInitial(SimilarityKernel::new);
+
+	private int[][] transposed = new int[PitchProfile.NUM_NOTES_PER_OCTAVE][];
+	private int[] filled = new int[PitchProfile.NUM_NOTES_PER_OCTAVE]; // candidate stamp of each row
+	private int stamp;
+	private double[] results = new double[0];
+	private PitchProfile profile; // scratch candidate profile
+	private PitchProfile candidate; // being scored
+
+	// Kernel owned by the calling thread
+	public static SimilarityKernel get() {return LOCAL.get();}
+
+	// Reusable output array for score() with room for @n originals
+	public double[] results(int n) {
+		if (results.length < n)
+			results = new double[n];
+		return results;
+	}
+
+	// Profile of @s in a buffer owned by this kernel; valid until the next call
+	public PitchProfile profile(MusicSelection s) {
+		if (profile == null)
+			profile = new PitchProfile(s);
+		else
+			profile.set(s);
+		return profile;
+	}
+
+	// Writes the similarity of @candidate to each of @originals into @out
+	public void score(PitchProfile candidate, PitchProfile[] originals, double[] out) {
+		score(candidate, originals, out, null, null);
+	}
+
+	// As above, also storing the dot products and candidate norms behind each similarity if @dots is not null
+	public void score(PitchProfile candidate, PitchProfile[] originals, double[] out, long[] dots, long[] mags) {
+		start(candidate);
+		for (int j = 0; j < originals.length; j++)
+			out[j] = similarity(originals[j], dots, mags, j);
+	}
+
+	/* Makes @candidate the piece that similarity() scores, for scoring against some originals only.
+	 * Transpositions are shared by all originals until the next start() or score().
+	 */
+	public void start(PitchProfile candidate) {
+		stamp++;
+		this.candidate = candidate;
+	}
+
+	// Similarity of the candidate of the last start() to @orig
+	public double similarity(PitchProfile orig) {
+		return similarity(orig, null, null, 0);
+	}
+
+	// Lane values of the candidate of the last start() transposed by @shift; must not be modified
+	int[] transposed(int shift) {
+		if (filled[shift] != stamp) {
+			int length = candidate.length();
+			if (transposed[shift] == null || transposed[shift].length < length)
+				transposed[shift] = new int[Math.max(length, 64)];
+			candidate.transposeInto(shift, transposed[shift]);
+			filled[shift] = stamp;
+		}
+		return transposed[shift];
+	}
+
+	private double similarity(PitchProfile orig, long[] dots, long[] mags, int j) {
+		int n = Math.min(candidate.length(), orig.length());
+		int[] a = transposed(orig.shiftFor(candidate));
+		int[] b = orig.values();
+		long dot = 0;
+		long magA = 0;
+		for (int start = 0; start < n; start += BLOCK) {
+			int end = Math.min(n, start + BLOCK);
+			dot += dot(a, b, start, end);
+			magA += dot(a, a, start, end);
+		}
+		if (dots != null) {
+			dots[j] = dot;
+			mags[j] = magA;
+		}
+		return dot / Math.sqrt((double)magA * orig.normSquared(n));
+	}
+
+	// Kept free of branches and long arithmetic so the loop vectorizes
+	private static int dot(int[] a, int[] b, int from, int to) {
+		int sum = 0;
+		for (int i = from; i < to; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+}
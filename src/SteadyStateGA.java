@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.util.*;
+
+/*
+ * Steady-state alternative to the generational loop of MusicGeneticAlgorithm: instead of breeding a
+ * whole new population every generation, each step breeds one pair of offspring, and each child
+ * replaces the least fit individual if it is fitter. The fittest individual is therefore never lost,
+ * and progress is visible after every pair rather than every generation.
+ *
+ * The population is that of the MusicGeneticAlgorithm it is created from, which also supplies the
+ * operators, fitness and random generator. Individuals are kept in a TreeSet ordered by fitness, so the
+ * best and worst are found and replaced in O(log N), against the O(N) scans of a generation; parents
+ * are drawn by tournament straight from the population list in O(1). This makes populations of 100000
+ * and more practical. Fitness sharing (niching) depends on the whole population and is not supported;
+ * the constructor rejects an algorithm that has it turned on.
+ *
+ * For stopping criteria and listeners, an epoch of as many offspring as there are individuals counts
+ * as one generation.
+ */
+public class SteadyStateGA {
+	// An individual together with the fitness it is ranked by
+	private static class Ranked implements Comparable<Ranked> {
+		MusicSelection piece;
+		double fitness;
+		long birth; // among equally fit individuals, the oldest ranks lowest
+
+		public int compareTo(Ranked o) {
+			int c = Double.compare(fitness, o.fitness);
+			return c != 0 ? c : Long.compare(birth, o.birth);
+		}
+	}
+
+	private MusicGeneticAlgorithm ga;
+	private Random gen;
+	private ArrayList<MusicSelection> population;
+	private TreeSet<Ranked> ranking = new TreeSet<Ranked>();
+	private MusicSelection child1;
+	private MusicSelection child2;
+	private double crossoverRate;
+	private long births; // offspring bred so far
+	private long replacements; // offspring that entered the population
+	private int epoch;
+	private ArrayList<GenerationListener> listeners = new ArrayList<GenerationListener>();
+
+	// Continues from the current population of @ga, which is scored here; @ga must not use niching
+	public SteadyStateGA(MusicGeneticAlgorithm ga) {
+		if (ga.isNiching())
+			throw new IllegalArgumentException("Niching is not supported by the steady-state algorithm");
+		this.ga = ga;
+		gen = ga.getRandom();
+		population = ga.getPopulation();
+		crossoverRate = ga.getConfig().getCrossoverRate();
+		for (MusicSelection s : population) {
+			Ranked r = new Ranked();
+			r.piece = s;
+			r.fitness = ga.fitness(s);
+			r.birth = births++;
+			ranking.add(r);
+		}
+		int chunkSize = ga.getChunkSize();
+		child1 = new MusicSelection(new short[0], 0, chunkSize);
+		child2 = new MusicSelection(new short[0], 0, chunkSize);
+	}
+
+	/* Breeds one pair: two tournament winners are crossed over and mutated as in the generational
+	 * algorithm, and each child then takes the place of the least fit individual if it beats it.
+	 * Returns the number of children that entered the population.
+	 */
+	public int step() {
+		MusicSelection s1 = ga.better(ga.getRandomIndividual(population, gen), ga.getRandomIndividual(population, gen));
+		MusicSelection s2 = ga.better(ga.getRandomIndividual(population, gen), ga.getRandomIndividual(population, gen));
+		if (gen.nextDouble() < crossoverRate)
+			ga.crossoverInto(s1, s2, child1, child2, gen);
+		else {
+			child1.copyFrom(s1);
+			child2.copyFrom(s2);
+		}
+		double rate = ga.getMutationRate();
+		ga.mutate(child1, rate, gen);
+		ga.mutate(child2, rate, gen);
+		child1.check();
+		child2.check();
+		return replaceWorst(child1) + replaceWorst(child2);
+	}
+
+	// Copies @child over the least fit individual if it is fitter; returns 1 if it did
+	private int replaceWorst(MusicSelection child) {
+		double f = ga.fitness(child);
+		births++;
+		Ranked worst = ranking.first();
+		if (f <= worst.fitness)
+			return 0;
+		ranking.pollFirst();
+		worst.piece.copyFrom(child); // the population keeps its individuals, only their contents change
+		worst.fitness = f;
+		worst.birth = births;
+		ranking.add(worst);
+		replacements++;
+		return 1;
+	}
+
+	/* Runs epochs of as many offspring as the population holds until @stop says to stop after one of
+	 * them. At least one epoch is run. Returns the number of epochs run.
+	 */
+	public int runAlgorithm(StoppingCriterion stop) {
+		int epochs = 0;
+		GenerationStats stats;
+		do {
+			stats = runEpoch();
+			epochs++;
+		}
+		while (!stop.shouldStop(stats));
+		return epochs;
+	}
+
+	// Runs one epoch and returns its measurements, which are also published to the listeners
+	public GenerationStats runEpoch() {
+		long start = System.nanoTime();
+		long evaluationsBefore = ga.getEvaluations();
+		long hitsBefore = ga.getFitnessCache().getHits();
+		for (int i = 0; i < population.size(); i += 2)
+			step();
+
+		GenerationStats stats = new GenerationStats();
+		stats.generation = epoch++;
+		stats.populationSize = population.size();
+		stats.bestFitness = ranking.last().fitness;
+		double total = 0;
+		double totalSquares = 0;
+		for (Ranked r : ranking) {
+			total += r.fitness;
+			totalSquares += r.fitness * r.fitness;
+		}
+		stats.meanFitness = total / ranking.size();
+		stats.fitnessStdDev = Math.sqrt(Math.max(0, totalSquares / ranking.size() - stats.meanFitness * stats.meanFitness));
+		stats.mutationRate = ga.getMutationRate();
+		stats.evaluations = ga.getEvaluations() - evaluationsBefore;
+		stats.cacheHits = ga.getFitnessCache().getHits() - hitsBefore;
+		stats.elapsedNanos = System.nanoTime() - start;
+		stats.allocatedBytes = -1;
+		for (GenerationListener l : listeners)
+			l.generationCompleted(stats);
+		return stats;
+	}
+
+	public MusicSelection getBestPiece() {return ranking.last().piece;}
+	public MusicSelection getWorstPiece() {return ranking.first().piece;}
+	public double getBestFitness() {return ranking.last().fitness;}
+	public long getBirths() {return births;}
+	public long getReplacements() {return replacements;}
+	public int getEpoch() {return epoch;}
+	public MusicGeneticAlgorithm getAlgorithm() {return ga;}
+	public void addListener(GenerationListener l) {listeners.add(l);}
+	public void removeListener(GenerationListener l) {listeners.remove(l);}
+
+	// Usage: java SteadyStateGA [individualsPerOriginal] [epochs] [files.txt]
+	public static void main(String args[]) throws IOException {
+		GAConfig config = new GAConfig();
+		if (args.length > 0)
+			config.setIndividualsPerOriginal(Integer.parseInt(args[0]));
+		int epochs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		OriginalSet originals = new OriginalSet(Driver.readPieces(args.length > 2 ? args[2] : "files.txt"));
+		long start = System.currentTimeMillis();
+		MusicGeneticAlgorithm g = new MusicGeneticAlgorithm(originals, config, 123456);
+		SteadyStateGA s = new SteadyStateGA(g);
+		s.addListener(System.out::println);
+		s.runAlgorithm(StoppingCriterion.anyOf(StoppingCriterion.maxGenerations(epochs), StoppingCriterion.targetFitness(1)));
+		MusicSelection best = s.getBestPiece();
+		System.out.println("Best result:\n" + best);
+		System.out.println(g.fitnessOrig(best) + ", " + g.fitness(best));
+		System.out.println(g.toNotes(best));
+		System.out.println(s.getReplacements() + " of " + s.getBirths() + " individuals replaced, "
+				+ (System.currentTimeMillis() - start) + " milliseconds");
+	}
+}
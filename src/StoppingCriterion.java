@@ -0,0 +1,70 @@
+/*
+ * Decides after each generation whether MusicGeneticAlgorithm.runAlgorithm() should stop.
+ * Criteria may keep state across generations, so use a fresh instance for every run.
+ */
+public interface StoppingCriterion {
+	// Called once per generation with its measurements; returns true to stop
+	public boolean shouldStop(GenerationStats stats);
+
+	// Stops after @n generations
+	public static StoppingCriterion maxGenerations(int n) {
+		return new StoppingCriterion() {
+			private int count;
+			public boolean shouldStop(GenerationStats stats) {return ++count >= n;}
+		};
+	}
+
+	// Stops once the best fitness reaches @fitness (1 = exactly OPTIMAL_FITNESS similarity)
+	public static StoppingCriterion targetFitness(double fitness) {
+		return stats -> stats.bestFitness >= fitness;
+	}
+
+	// Stops when the best fitness has not improved for @generations generations
+	public static StoppingCriterion noImprovement(int generations) {
+		return new StoppingCriterion() {
+			private double best = Double.NEGATIVE_INFINITY;
+			private int stale;
+			public boolean shouldStop(GenerationStats stats) {
+				if (stats.bestFitness > best) {
+					best = stats.bestFitness;
+					stale = 0;
+				}
+				else
+					stale++;
+				return stale >= generations;
+			}
+		};
+	}
+
+	// Stops once the generations run so far have taken @millis milliseconds
+	public static StoppingCriterion wallClock(long millis) {
+		return new StoppingCriterion() {
+			private long elapsed;
+			public boolean shouldStop(GenerationStats stats) {
+				elapsed += stats.elapsedNanos;
+				return elapsed >= millis * 1000000;
+			}
+		};
+	}
+
+	// Stops once @evaluations full fitness evaluations have been spent
+	public static StoppingCriterion evaluationBudget(long evaluations) {
+		return new StoppingCriterion() {
+			private long spent;
+			public boolean shouldStop(GenerationStats stats) {
+				spent += stats.evaluations;
+				return spent >= evaluations;
+			}
+		};
+	}
+
+	// Stops as soon as any of @criteria does; every criterion sees every generation
+	public static StoppingCriterion anyOf(StoppingCriterion... criteria) {
+		return stats -> {
+			boolean stop = false;
+			for (StoppingCriterion c : criteria)
+				stop |= c.shouldStop(stats);
+			return stop;
+		};
+	}
+}